@@ -0,0 +1,70 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.yandex.jenkins.plugins.debuilder.ChangesExtractor.Change;
+
+/**
+ * Parsing the latest stanza of a long changelog and writing a stanza of <b>changes</b> entries
+ *
+ * @author pupssman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ChangelogBenchmark {
+	private static final Date DATE = new Date(1500000000000L);
+
+	@Param({"10", "1000"})
+	public int changes;
+
+	private String changelog;
+	private ChangelogWriter writer;
+
+	@Setup
+	public void generate() {
+		List<Change> entries = new ArrayList<Change>();
+		for (int i = 0; i < changes; i++) {
+			entries.add(new Change("Developer " + i % 17, "Change number " + i + " with a message long enough to be wrapped at least once by the writer"));
+		}
+
+		writer = new ChangelogWriter("foo", "1.0." + changes, "unstable", "Jenkins", "jenkins@example.com", "Build 1.0", entries);
+
+		StringBuilder history = new StringBuilder();
+		for (int stanza = 0; stanza < 100; stanza++) {
+			history.append(new ChangelogWriter("foo", "1.0." + (100 - stanza), "unstable", "Jenkins", "jenkins@example.com", "Build", entries).getStanza(DATE)).append('\n');
+		}
+		changelog = history.toString();
+	}
+
+	@Benchmark
+	public ChangelogEntry parse() throws IOException {
+		return ChangelogParser.parse(new BufferedReader(new StringReader(changelog)));
+	}
+
+	@Benchmark
+	public String write() {
+		return writer.getStanza(DATE);
+	}
+}
@@ -0,0 +1,33 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generating <i>dupload.conf</i> as done for every upload
+ *
+ * @author pupssman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DuploadConfBenchmark {
+	private final DebianPackageRepo repo = new DebianPackageRepo("repo", "scpb", "repo.example.com", "/repo/mini-dinstall/incoming/", "jenkins", "-o StrictHostKeyChecking=no", "repo.key");
+
+	@Benchmark
+	public String generate() {
+		return DuploadEngine.getConf(repo, "/tmp/private1234key");
+	}
+}
@@ -0,0 +1,160 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.TaskListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ru.yandex.jenkins.plugins.debuilder.ChangesExtractor.Change;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Walks a synthetic history of <b>commits</b> commits made after the last changelog modification.
+ *
+ * <i>regexHeaders</i> reads author emails the way the changelog used to be extracted from git plugin change sets:
+ * compiling a pattern per revision and matching it against every line of the raw commit,
+ * <i>parsedHeaders</i> reads them with the commit header parser of JGit used by {@link GitChangelogWalker}.
+ * <i>gitClientWalk</i> walks through a git client as the tests of {@link ChangesExtractor} do.
+ *
+ * @author pupssman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class GitChangelogWalkerBenchmark {
+	private static final PersonIdent ACCOUNT = new PersonIdent("Jenkins", "jenkins@example.com");
+
+	@Param({"1000", "10000"})
+	public int commits;
+
+	private File root;
+	private Repository repository;
+	private String debian;
+	private String knownHead;
+	private List<Change> knownChanges;
+	private GitClient client;
+
+	@Setup(Level.Trial)
+	public void createRepository() throws Exception {
+		root = Util.createTempDir();
+		File debianDir = new File(root, "debian");
+		debianDir.mkdirs();
+
+		Git git = Git.init().setDirectory(root).call();
+		Files.write("test (1.0) unstable; urgency=low\n", new File(debianDir, "changelog"), Charsets.UTF_8);
+		commit(git, ACCOUNT, "Release 1.0");
+
+		File source = new File(root, "source.c");
+		for (int i = 0; i < commits; i++) {
+			Files.write("int revision = " + i + ";\n", source, Charsets.UTF_8);
+			commit(git, new PersonIdent("Developer " + i % 17, "developer" + i % 17 + "@example.com"), "Change number " + i + "\n\nWith some body explaining it in detail.");
+		}
+
+		repository = git.getRepository();
+		debian = debianDir.getAbsolutePath();
+
+		// pretend everything but the latest ten commits was walked before
+		knownHead = repository.resolve(Constants.HEAD + "~10").name();
+		List<Change> all = walk(null, new ArrayList<Change>());
+		knownChanges = new ArrayList<Change>(all.subList(0, all.size() - 10));
+
+		client = org.jenkinsci.plugins.gitclient.Git.with(TaskListener.NULL, new EnvVars()).in(new FilePath(root)).using("jgit").getClient();
+	}
+
+	private static void commit(Git git, PersonIdent author, String message) throws Exception {
+		git.add().addFilepattern(".").call();
+		git.commit().setAuthor(author).setCommitter(author).setMessage(message).call();
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteRepository() throws IOException {
+		repository.close();
+		Util.deleteRecursive(root);
+	}
+
+	private List<Change> walk(String head, List<Change> known) throws Exception {
+		return new GitChangelogWalker(debian, ACCOUNT, head, known).invoke(repository, null);
+	}
+
+	@Benchmark
+	public List<Change> fullWalk() throws Exception {
+		return walk(null, new ArrayList<Change>());
+	}
+
+	@Benchmark
+	public List<Change> incrementalWalk() throws Exception {
+		return walk(knownHead, knownChanges);
+	}
+
+	@Benchmark
+	public List<Change> gitClientWalk() throws Exception {
+		return ChangesExtractor.getChangesFromGit(client, debian, ACCOUNT);
+	}
+
+	@Benchmark
+	public void regexHeaders(Blackhole blackhole) throws Exception {
+		RevWalk walk = new RevWalk(repository);
+		try {
+			walk.markStart(walk.parseCommit(repository.resolve(Constants.HEAD)));
+			for (RevCommit commit: walk) {
+				Pattern pattern = Pattern.compile("^author [^<]*<(.*)> .*$");
+				for (String line: new String(commit.getRawBuffer(), Constants.CHARACTER_ENCODING).split("\n")) {
+					Matcher matcher = pattern.matcher(line);
+					if (matcher.matches()) {
+						blackhole.consume(matcher.group(1));
+					}
+				}
+			}
+		} finally {
+			walk.release();
+		}
+	}
+
+	@Benchmark
+	public void parsedHeaders(Blackhole blackhole) throws Exception {
+		RevWalk walk = new RevWalk(repository);
+		try {
+			walk.markStart(walk.parseCommit(repository.resolve(Constants.HEAD)));
+			for (RevCommit commit: walk) {
+				blackhole.consume(commit.getAuthorIdent().getEmailAddress());
+			}
+		} finally {
+			walk.release();
+		}
+	}
+}
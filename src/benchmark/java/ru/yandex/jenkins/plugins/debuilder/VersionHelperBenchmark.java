@@ -0,0 +1,49 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and bumping versions as done for every build
+ *
+ * @author pupssman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class VersionHelperBenchmark {
+	@Param({"1.0", "1.6.18", "2:1.2.3-4ubuntu5", "0.1.2.3.4.5.6.7.8.9-rc1"})
+	public String version;
+
+	@Benchmark
+	public VersionHelper parse() {
+		return new VersionHelper(version);
+	}
+
+	@Benchmark
+	public String bumpMinor() {
+		VersionHelper helper = new VersionHelper(version);
+		helper.setMinorVersion(helper.getMinorVersion() + 1);
+		return helper.toString();
+	}
+
+	@Benchmark
+	public String setRevision() {
+		VersionHelper helper = new VersionHelper(version);
+		helper.setRevision("1234");
+		return helper.toString();
+	}
+}
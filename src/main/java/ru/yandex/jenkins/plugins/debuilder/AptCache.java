@@ -0,0 +1,199 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import jedi.functional.FunctionalPrimitives;
+
+import ru.yandex.jenkins.plugins.debuilder.DebUtils.LineProcessor;
+import ru.yandex.jenkins.plugins.debuilder.DebUtils.Runner;
+
+/**
+ * Node-level archive of downloaded .deb files in {@link #DIR}, shared by all the builds on the node
+ * and kept regardless of the host apt cache being cleaned.
+ *
+ * Apt run by the plugin on the host is pointed to it with <i>APT_CONFIG</i>, <i>cowbuilder</i> with <i>--aptcache</i>.
+ * Installations on the host are tracked through <i>dpkg.log</i> to count hits and misses of the packages fetched through apt,
+ * installed packages are touched, and the least recently used ones are evicted once the archive exceeds its size.
+ * Packages installed in a <i>cowbuilder</i> chroot don't get into the log of the host, so for those only the downloaded ones are counted.
+ *
+ * Nothing is done on the node until the cache is first used, so an unused instance costs nothing.
+ *
+ * @author pupssman
+ */
+public class AptCache {
+	public static final String DIR = "/var/cache/debian-package-builder/apt-archives";
+	public static final String CONF = "/var/cache/debian-package-builder/apt.conf";
+	private static final String DPKG_LOG = "/var/log/dpkg.log";
+
+	private final Runner runner;
+	private final long sizeLimit;
+
+	private Set<String> cached;
+	private long dpkgLogOffset;
+	private boolean chroot;
+
+	/**
+	 * @param runner
+	 * @param sizeMegabytes size of the archive, or 0 for the cache to be disabled
+	 */
+	public AptCache(Runner runner, int sizeMegabytes) {
+		this.runner = runner;
+		this.sizeLimit = sizeMegabytes * 1024L * 1024L;
+	}
+
+	public boolean isEnabled() {
+		return sizeLimit > 0;
+	}
+
+	/**
+	 * @return environment to run apt with after <i>sudo</i>, followed by a space, or empty string if the cache is disabled
+	 */
+	public String getSudoEnv() throws InterruptedException, DebianizingException {
+		if (!isEnabled()) {
+			return "";
+		}
+
+		start();
+		return MessageFormat.format("env APT_CONFIG={0} ", CONF);
+	}
+
+	/**
+	 * @return options for <i>cowbuilder</i> followed by a space, or empty string if the cache is disabled
+	 */
+	public String getCowbuilderOptions() throws InterruptedException, DebianizingException {
+		if (!isEnabled()) {
+			return "";
+		}
+
+		start();
+		chroot = true;
+		return MessageFormat.format("--aptcache ''{0}'' ", DIR);
+	}
+
+	private void start() throws InterruptedException, DebianizingException {
+		if (cached != null) {
+			return;
+		}
+
+		runner.runCommand("sudo mkdir -p ''{0}''/partial && echo ''Dir::Cache::Archives \"{0}/\";'' | sudo tee ''{1}'' > /dev/null", DIR, CONF);
+
+		cached = list();
+		String size = runner.runCommandForOutput("stat -c %s " + DPKG_LOG + " 2>/dev/null || echo 0").trim();
+		try {
+			dpkgLogOffset = Long.parseLong(size);
+		} catch (NumberFormatException e) {
+			dpkgLogOffset = 0;
+		}
+	}
+
+	/**
+	 * Reports hits and misses since the cache was first used, marks the installed packages as used and evicts the least recently used ones
+	 */
+	public void finish() throws InterruptedException, DebianizingException {
+		if (cached == null) {
+			return;
+		}
+
+		Set<String> current = list();
+		Set<String> added = new HashSet<String>(current);
+		added.removeAll(cached);
+
+		List<String> used = new ArrayList<String>();
+		if (chroot) {
+			runner.announce("Apt cache: {0} packages added to {1}, hits in the chroot are not tracked", added.size(), DIR);
+		} else {
+			List<String> installed = runner.runCommandForLines(MessageFormat.format("tail -c +{0} {1}", Long.toString(dpkgLogOffset + 1), DPKG_LOG), new InstalledDebs()).getResult();
+
+			int hits = 0;
+			int misses = 0;
+			for (String deb: installed) {
+				// whatever is neither in the archive nor downloaded into it was not fetched through apt, like .deb files installed with dpkg -i
+				if (cached.contains(deb)) {
+					hits++;
+				} else if (added.contains(deb)) {
+					misses++;
+				} else {
+					continue;
+				}
+
+				if (current.contains(deb)) {
+					used.add("'" + deb + "'");
+				}
+			}
+
+			runner.announce("Apt cache: {0} hits, {1} misses, {2} packages added to {3}", hits, misses, added.size(), DIR);
+		}
+
+		if (!used.isEmpty()) {
+			runner.runCommand("cd '" + DIR + "' && sudo touch -c " + FunctionalPrimitives.join(used, " "));
+		}
+
+		// newest first, everything past the limit goes
+		runner.runCommand("cd '" + DIR + "' && total=0 && ls -t | grep '\\.deb$' | while read deb; do total=$((total + $(stat -c %s \"$deb\"))); "
+				+ "if [ $total -gt " + sizeLimit + " ]; then sudo rm -f \"$deb\"; fi; done");
+
+		cached = null;
+		chroot = false;
+	}
+
+	private Set<String> list() throws DebianizingException {
+		return runner.runCommandForLines(MessageFormat.format("ls -1 ''{0}''", DIR), new DebNames()).getResult();
+	}
+
+	/**
+	 * Collects names of .deb files
+	 */
+	static final class DebNames implements LineProcessor<HashSet<String>> {
+		private static final long serialVersionUID = 1L;
+
+		private final HashSet<String> names = new HashSet<String>();
+
+		@Override
+		public boolean processLine(String line) {
+			if (line.endsWith(".deb")) {
+				names.add(line.trim());
+			}
+			return true;
+		}
+
+		@Override
+		public HashSet<String> getResult() {
+			return names;
+		}
+	}
+
+	/**
+	 * Collects names of the .deb files installed according to <i>dpkg.log</i> lines like
+	 * <i>2024-01-01 10:00:00 install libfoo:amd64 &lt;none&gt; 1:1.2-3</i>
+	 */
+	static final class InstalledDebs implements LineProcessor<ArrayList<String>> {
+		private static final long serialVersionUID = 1L;
+
+		private final ArrayList<String> debs = new ArrayList<String>();
+
+		@Override
+		public boolean processLine(String line) {
+			String[] fields = line.split(" ");
+			if (fields.length < 6 || !(fields[2].equals("install") || fields[2].equals("upgrade"))) {
+				return true;
+			}
+
+			int colon = fields[3].indexOf(':');
+			String name = colon < 0 ? fields[3] : fields[3].substring(0, colon);
+			String arch = colon < 0 ? "all" : fields[3].substring(colon + 1);
+
+			// apt stores the epoch colon url-encoded
+			debs.add(name + "_" + fields[5].replace(":", "%3a") + "_" + arch + ".deb");
+			return true;
+		}
+
+		@Override
+		public ArrayList<String> getResult() {
+			return debs;
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import jenkins.MasterToSlaveFileCallable;
+import ru.yandex.jenkins.plugins.debuilder.DebUtils.Runner;
+
+/**
+ * Archives the files listed in <i>.changes</i> of a built package, along with the <i>.changes</i> itself, as build artifacts.
+ *
+ * Names, sizes and checksums of all the files are collected on the node in a single call.
+ * If master sees the very same file under the same path (the workspace is on master or on a shared filesystem)
+ * the file is copied locally by the kernel, without passing through the remoting channel.
+ * Otherwise it is streamed as is: package payloads are already compressed, so no gzipped tar is involved.
+ *
+ * @author pupssman
+ */
+public class ArtifactArchiver {
+	/**
+	 * @param runner
+	 * @param dir directory on the node containing the built files
+	 * @param source name of the source package
+	 * @param version version of the source package
+	 * @param artifactsDir artifacts directory of the build
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void archive(Runner runner, FilePath dir, String source, String version, File artifactsDir) throws IOException, InterruptedException {
+		List<Artifact> artifacts = dir.act(new Inventory(ChangesFile.getNamePrefix(source, version)));
+
+		if (artifacts.isEmpty()) {
+			runner.announce("No .changes of {0} {1} found in {2}, nothing to archive", source, version, dir.getRemote());
+			return;
+		}
+
+		if (!artifactsDir.isDirectory() && !artifactsDir.mkdirs()) {
+			throw new IOException("Failed to create " + artifactsDir);
+		}
+
+		for (Artifact artifact: artifacts) {
+			File target = new File(artifactsDir, artifact.getName());
+			long started = System.currentTimeMillis();
+
+			File local = getLocal(dir, artifact);
+			String how;
+			if (local != null) {
+				copyLocally(local, target);
+				how = "locally";
+			} else {
+				dir.child(artifact.getName()).copyTo(new FilePath(target));
+				how = "from the node";
+			}
+
+			long elapsed = Math.max(1, System.currentTimeMillis() - started);
+			runner.announce("Archived <{0}> as a build artifact {1}: {2} bytes in {3} ({4} KB/s), sha256 {5}", artifact.getName(), how, artifact.getSize(),
+					Util.getTimeSpanString(elapsed), artifact.getSize() * 1000 / 1024 / elapsed, Util.fixNull(artifact.getSha256()));
+		}
+	}
+
+	/**
+	 * @param artifactsDir artifacts directory of a build
+	 * @param source name of the source package
+	 * @param version version of the source package
+	 * @return <b>true</b> if the build has archived the .changes of the package along with all the files it lists
+	 */
+	public static boolean hasArtifacts(File artifactsDir, String source, String version) throws InterruptedException {
+		try {
+			return !new Inventory(ChangesFile.getNamePrefix(source, version)).invoke(artifactsDir, null).isEmpty();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Copies the package archived by an earlier build into the artifacts of this one and next to the module on the node,
+	 * where a freshly built package would be, so that it is published the usual way
+	 *
+	 * @param runner
+	 * @param fromDir artifacts directory of the earlier build
+	 * @param source name of the source package
+	 * @param version version of the source package
+	 * @param artifactsDir artifacts directory of this build
+	 * @param dir directory on the node to put the files to
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void restore(Runner runner, File fromDir, String source, String version, File artifactsDir, FilePath dir) throws IOException, InterruptedException {
+		List<Artifact> artifacts = new Inventory(ChangesFile.getNamePrefix(source, version)).invoke(fromDir, null);
+
+		if (!artifactsDir.isDirectory() && !artifactsDir.mkdirs()) {
+			throw new IOException("Failed to create " + artifactsDir);
+		}
+
+		for (Artifact artifact: artifacts) {
+			File archived = new File(fromDir, artifact.getName());
+			copyLocally(archived, new File(artifactsDir, artifact.getName()));
+			new FilePath(archived).copyTo(dir.child(artifact.getName()));
+
+			runner.announce("Restored <{0}> from {1}: {2} bytes, sha256 {3}", artifact.getName(), fromDir, artifact.getSize(), Util.fixNull(artifact.getSha256()));
+		}
+	}
+
+	/**
+	 * @return the same file as seen by master or <b>null</b> if master doesn't see it
+	 */
+	private static File getLocal(FilePath dir, Artifact artifact) {
+		File local = new File(dir.getRemote(), artifact.getName());
+
+		if (!dir.isRemote()) {
+			return local;
+		}
+
+		if (local.isFile() && local.length() == artifact.getSize() && local.lastModified() == artifact.getLastModified()) {
+			return local;
+		}
+
+		return null;
+	}
+
+	private static void copyLocally(File source, File target) throws IOException {
+		FileChannel input = new FileInputStream(source).getChannel();
+		try {
+			FileChannel output = new FileOutputStream(target).getChannel();
+			try {
+				long position = 0;
+				long size = input.size();
+				while (position < size) {
+					position += input.transferTo(position, size - position, output);
+				}
+			} finally {
+				output.close();
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Lists .changes with the given prefix and the files they reference, should be invoked on the directory containing them
+	 */
+	static final class Inventory extends MasterToSlaveFileCallable<List<Artifact>> {
+		private static final long serialVersionUID = 1L;
+
+		private final String prefix;
+
+		Inventory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public List<Artifact> invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+			ArrayList<Artifact> result = new ArrayList<Artifact>();
+			File[] files = dir.listFiles();
+
+			if (files == null) {
+				return result;
+			}
+
+			for (File changes: files) {
+				if (!changes.getName().startsWith(prefix) || !changes.getName().endsWith(".changes")) {
+					continue;
+				}
+
+				BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(changes), "UTF-8"));
+				try {
+					for (ChangesFile.Entry entry: ChangesFile.parse(changes.getName(), reader).getEntries()) {
+						File file = new File(dir, entry.getName());
+						if (!file.isFile()) {
+							throw new IOException(file + " listed in " + changes.getName() + " is missing");
+						}
+
+						result.add(new Artifact(entry.getName(), file.length(), file.lastModified(), entry.getSha256()));
+					}
+				} finally {
+					reader.close();
+				}
+
+				result.add(new Artifact(changes.getName(), changes.length(), changes.lastModified(), null));
+			}
+
+			return result;
+		}
+	}
+
+	/**
+	 * A file to archive as seen on the node
+	 */
+	static final class Artifact implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private final long size;
+		private final long lastModified;
+		private final String sha256;
+
+		Artifact(String name, long size, long lastModified, String sha256) {
+			this.name = name;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.sha256 = sha256;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return SHA-256 from the .changes or <b>null</b> if it is not listed there
+		 */
+		public String getSha256() {
+			return sha256;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import ru.yandex.jenkins.plugins.debuilder.DebUtils.Runner;
+
+/**
+ * Remembers which sets of build dependencies (identified by {@link BuildDependsHasher} digests) were already satisfied on each node
+ * and how long satisfying them took.
+ *
+ * A set is trusted as is while the dpkg status file of the node stays the same.
+ * Once it changes (another build installed or removed packages, or the node was reprovisioned under the same name)
+ * the set is confirmed with <i>dpkg-checkbuilddeps</i> before being trusted again.
+ *
+ * @author pupssman
+ */
+public class BuildDependsCache {
+	private static final ConcurrentMap<String, ConcurrentMap<String, Satisfied>> nodes = new ConcurrentHashMap<String, ConcurrentMap<String, Satisfied>>();
+
+	/**
+	 * @param runner
+	 * @param node
+	 * @param digest
+	 * @param ttlMinutes how long a satisfied set is trusted
+	 * @param remoteDebian debian directory of the module the build dependencies are declared by
+	 * @return how long satisfying given build dependencies took on the node, or <b>null</b> if they are not known to be satisfied
+	 * @throws InterruptedException
+	 * @throws DebianizingException
+	 */
+	public static Long getSatisfyingTime(Runner runner, String node, String digest, long ttlMinutes, String remoteDebian) throws InterruptedException, DebianizingException {
+		ConcurrentMap<String, Satisfied> satisfied = nodes.get(node);
+		if (satisfied == null) {
+			return null;
+		}
+
+		Satisfied entry = satisfied.get(digest);
+		if (entry == null) {
+			return null;
+		}
+
+		if (System.currentTimeMillis() - entry.timestamp >= TimeUnit.MINUTES.toMillis(ttlMinutes)) {
+			satisfied.remove(digest, entry);
+			return null;
+		}
+
+		long statusModified = ToolsCache.getStatusModified(runner);
+		if (statusModified == entry.statusModified) {
+			return entry.duration;
+		}
+
+		if (!runner.runCommandForResult("cd ''{0}''/.. && dpkg-checkbuilddeps", remoteDebian)) {
+			runner.announce("Build dependencies <{0}> are not satisfied on <{1}> anymore", digest, node);
+			satisfied.remove(digest, entry);
+			return null;
+		}
+
+		satisfied.replace(digest, entry, new Satisfied(entry.timestamp, entry.duration, statusModified));
+		return entry.duration;
+	}
+
+	/**
+	 * @param node
+	 * @param digest
+	 * @param duration how long satisfying the build dependencies took
+	 * @param statusModified modification time of the dpkg status file of the node right after they were satisfied
+	 */
+	public static void recordSatisfied(String node, String digest, long duration, long statusModified) {
+		nodes.putIfAbsent(node, new ConcurrentHashMap<String, Satisfied>());
+		nodes.get(node).put(digest, new Satisfied(System.currentTimeMillis(), duration, statusModified));
+	}
+
+	private static final class Satisfied {
+		private final long timestamp;
+		private final long duration;
+		private final long statusModified;
+
+		private Satisfied(long timestamp, long duration, long statusModified) {
+			this.timestamp = timestamp;
+			this.duration = duration;
+			this.statusModified = statusModified;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Calculates a digest of build relationship fields (Build-Depends, Build-Depends-Indep, Build-Conflicts etc.)
+ * of the source paragraph of debian/control.
+ * Formatting of the fields doesn't matter, only their values do.
+ *
+ * Should be invoked on the control file itself.
+ *
+ * @author pupssman
+ */
+public class BuildDependsHasher extends MasterToSlaveFileCallable<String> {
+	private static final long serialVersionUID = 1L;
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+	private static final Pattern COMMA = Pattern.compile("\\s*,\\s*");
+
+	@Override
+	public String invoke(File control, VirtualChannel channel) throws IOException, InterruptedException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(control), "UTF-8"));
+		try {
+			return Util.getDigestOf(getBuildRelations(reader));
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * @return normalized build relationship fields of the first paragraph read from <b>reader</b>
+	 */
+	static String getBuildRelations(BufferedReader reader) throws IOException {
+		Map<String, StringBuilder> fields = new TreeMap<String, StringBuilder>();
+		StringBuilder current = null;
+		boolean inParagraph = false;
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.startsWith("#")) {
+				continue;
+			}
+
+			if (line.trim().isEmpty()) {
+				if (inParagraph) {
+					break;
+				}
+				continue;
+			}
+
+			inParagraph = true;
+
+			if (line.startsWith(" ") || line.startsWith("\t")) {
+				if (current != null) {
+					current.append(' ').append(line.trim());
+				}
+				continue;
+			}
+
+			int colon = line.indexOf(':');
+			String name = colon > 0 ? line.substring(0, colon).trim().toLowerCase() : "";
+
+			if (name.startsWith("build-depends") || name.startsWith("build-conflicts")) {
+				current = new StringBuilder(line.substring(colon + 1).trim());
+				fields.put(name, current);
+			} else {
+				current = null;
+			}
+		}
+
+		StringBuilder result = new StringBuilder();
+		for (Map.Entry<String, StringBuilder> field: fields.entrySet()) {
+			result.append(field.getKey()).append(": ").append(COMMA.matcher(WHITESPACE.matcher(field.getValue()).replaceAll(" ")).replaceAll(", ")).append('\n');
+		}
+
+		return result.toString();
+	}
+}
@@ -0,0 +1,184 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.Util;
+import hudson.model.Action;
+import hudson.model.AbstractBuild;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Per-build breakdown of the time spent in each phase of packaging, shown on the build page and exported via the REST API.
+ *
+ * @author pupssman
+ */
+@ExportedBean
+public class BuildTimings implements Action {
+	public static final String APT = "apt";
+	public static final String GPG = "gpg";
+	public static final String PARSECHANGELOG = "parsechangelog";
+	public static final String CHANGELOG = "changelog";
+	public static final String SATISFYDEPENDS = "satisfydepends";
+	public static final String CHROOT = "chroot";
+	public static final String DEBUILD = "debuild";
+	public static final String ARCHIVE = "archive";
+	public static final String DEBRELEASE = "debrelease";
+	public static final String UPLOAD = "upload";
+	public static final String OTHER = "other";
+
+	// command fragment -> phase, first match wins; changelog is parsed and written in-process and recorded explicitly
+	private static final String[][] COMMAND_PHASES = {
+		{"pbuilder-satisfydepends", SATISFYDEPENDS},
+		{"debrelease", DEBRELEASE},
+		{"debuild", DEBUILD},
+		{"cowbuilder --", CHROOT},
+		{"gpg ", GPG},
+		{"apt-get ", APT},
+		{"dpkg -s ", APT},
+	};
+
+	private final String node;
+	private final LinkedHashMap<String, Phase> phases = new LinkedHashMap<String, Phase>();
+
+	public BuildTimings(String node) {
+		this.node = node;
+	}
+
+	/**
+	 * @param build
+	 * @return timings attached to the build, attached first if there are none yet
+	 */
+	public static BuildTimings of(AbstractBuild<?, ?> build) {
+		synchronized (build) {
+			BuildTimings timings = build.getAction(BuildTimings.class);
+
+			if (timings == null) {
+				timings = new BuildTimings(build.getBuiltOnStr());
+				build.addAction(timings);
+			}
+
+			return timings;
+		}
+	}
+
+	/**
+	 * Records time spent in a phase since the given moment
+	 *
+	 * @param build
+	 * @param phase
+	 * @param started as given by {@link System#currentTimeMillis()}
+	 */
+	public static void record(AbstractBuild<?, ?> build, String phase, long started) {
+		of(build).add(phase, System.currentTimeMillis() - started);
+	}
+
+	/**
+	 * @param command shell command
+	 * @return phase the command belongs to
+	 */
+	public static String getPhase(String command) {
+		for (String[] phase: COMMAND_PHASES) {
+			if (command.contains(phase[0])) {
+				return phase[1];
+			}
+		}
+
+		return OTHER;
+	}
+
+	public synchronized void add(String phase, long duration) {
+		Phase known = phases.get(phase);
+
+		if (known == null) {
+			known = new Phase(phase);
+			phases.put(phase, known);
+		}
+
+		known.count++;
+		known.duration += duration;
+	}
+
+	/**
+	 * @return node the build was performed on, empty string for master
+	 */
+	@Exported
+	public String getNode() {
+		return node;
+	}
+
+	@Exported
+	public synchronized List<Phase> getPhases() {
+		return new ArrayList<Phase>(phases.values());
+	}
+
+	/**
+	 * @return sum of durations of all the phases, in milliseconds
+	 */
+	@Exported
+	public synchronized long getTotal() {
+		long total = 0;
+		for (Phase phase: phases.values()) {
+			total += phase.duration;
+		}
+
+		return total;
+	}
+
+	@Override
+	public String getIconFileName() {
+		return null;
+	}
+
+	@Override
+	public String getDisplayName() {
+		return "Debian package build timings";
+	}
+
+	@Override
+	public String getUrlName() {
+		return null;
+	}
+
+	/**
+	 * Time spent in a single phase, possibly over several commands
+	 */
+	@ExportedBean(defaultVisibility = 2)
+	public static final class Phase {
+		private final String name;
+		private int count;
+		private long duration;
+
+		public Phase(String name) {
+			this.name = name;
+		}
+
+		@Exported
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return number of times the phase was entered
+		 */
+		@Exported
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * @return total duration in milliseconds
+		 */
+		@Exported
+		public long getDuration() {
+			return duration;
+		}
+
+		public String getDurationString() {
+			return Util.getTimeSpanString(duration);
+		}
+	}
+}
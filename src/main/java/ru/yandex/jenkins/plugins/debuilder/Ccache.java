@@ -0,0 +1,186 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.Node;
+
+import java.io.Serializable;
+import java.text.MessageFormat;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ru.yandex.jenkins.plugins.debuilder.DebUtils.LineProcessor;
+import ru.yandex.jenkins.plugins.debuilder.DebUtils.Runner;
+
+/**
+ * Per-job, per-distribution <i>ccache</i> directory on the node, capped in size,
+ * wired into <i>debuild</i> on the host or into <i>pbuilder</i> for clean-room builds.
+ *
+ * Statistics of the cache are never zeroed, as modules built concurrently share it:
+ * usage by a build is the difference of {@link #getStats()} taken before and after, see {@link CcacheStats}.
+ *
+ * @author pupssman
+ */
+public class Ccache {
+	private static final String DIR_NAME = "debian-package-builder-ccache";
+
+	private final Runner runner;
+	private final String dir;
+	private final int sizeMegabytes;
+	private final boolean sudo;
+
+	/**
+	 * @param runner
+	 * @param dir directory of the cache on the node
+	 * @param sizeMegabytes maximum size of the cache, or 0 for the cache to be disabled
+	 * @param sudo if the cache is to be administered as root, as <i>pbuilder</i> gives it to the build user of the chroot
+	 */
+	public Ccache(Runner runner, String dir, int sizeMegabytes, boolean sudo) {
+		this.runner = runner;
+		this.dir = dir;
+		this.sizeMegabytes = sizeMegabytes;
+		this.sudo = sudo;
+	}
+
+	/**
+	 * @param build
+	 * @param distribution
+	 * @return directory of the cache of the job for the distribution in the root of the node the build runs on
+	 */
+	public static String getDir(AbstractBuild<?, ?> build, String distribution) {
+		Node node = build.getBuiltOn();
+		String root = node == null || node.getRootPath() == null ? build.getWorkspace().child("..").getRemote() : node.getRootPath().getRemote();
+
+		return MessageFormat.format("{0}/{1}/{2}/{3}", root, DIR_NAME, Util.rawEncode(build.getProject().getFullName()), Util.rawEncode(distribution));
+	}
+
+	public boolean isEnabled() {
+		return sizeMegabytes > 0;
+	}
+
+	/**
+	 * Creates the cache if needed and applies the size cap
+	 */
+	public void prepare() throws InterruptedException, DebianizingException {
+		if (!isEnabled()) {
+			return;
+		}
+
+		runner.runCommand("mkdir -p ''{0}'' && {1} -M {2}M", dir, getCommand(), Integer.toString(sizeMegabytes));
+	}
+
+	/**
+	 * @return options for <i>debuild</i> followed by a space, or empty string if the cache is disabled
+	 */
+	public String getDebuildOptions() {
+		if (!isEnabled()) {
+			return "";
+		}
+
+		return MessageFormat.format("--prepend-path /usr/lib/ccache -e CCACHE_DIR=''{0}'' ", dir);
+	}
+
+	/**
+	 * @return <i>pbuilderrc</i> lines making <i>pbuilder</i> mount the cache into the chroot and compile through it
+	 */
+	public String getPbuilderConfig() {
+		return MessageFormat.format("CCACHEDIR=\"{0}\"\nEXTRAPACKAGES=\"$EXTRAPACKAGES ccache\"\n", dir);
+	}
+
+	/**
+	 * @return hits and misses since the statistics of the cache were last zeroed
+	 */
+	public Stats getStats() throws DebianizingException {
+		return runner.runCommandForLines(getCommand() + " -s", new StatsParser()).getResult();
+	}
+
+	private String getCommand() {
+		return MessageFormat.format("{0}env CCACHE_DIR=''{1}'' ccache", sudo ? "sudo " : "", dir);
+	}
+
+	/**
+	 * Hits and misses of a cache
+	 */
+	public static final class Stats implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private long hits;
+		private long misses;
+
+		public Stats() {
+		}
+
+		public Stats(long hits, long misses) {
+			this.hits = hits;
+			this.misses = misses;
+		}
+
+		/**
+		 * @param earlier
+		 * @return hits and misses since the earlier statistics, none if the cache was zeroed in between
+		 */
+		public Stats since(Stats earlier) {
+			return new Stats(Math.max(0, hits - earlier.hits), Math.max(0, misses - earlier.misses));
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		public long getMisses() {
+			return misses;
+		}
+	}
+
+	/**
+	 * Reads <i>ccache -s</i> output of both ccache 3, with <i>cache hit (direct)</i>, <i>cache hit (preprocessed)</i> and <i>cache miss</i> lines,
+	 * and ccache 4, with the first <i>Hits:</i> and <i>Misses:</i> lines being the totals
+	 */
+	static final class StatsParser implements LineProcessor<Stats> {
+		private static final long serialVersionUID = 1L;
+		private static final Pattern NUMBER = Pattern.compile("\\d+");
+
+		private final Stats stats = new Stats();
+		private boolean totalHits;
+		private boolean totalMisses;
+
+		@Override
+		public boolean processLine(String line) {
+			String trimmed = line.trim().toLowerCase(Locale.ENGLISH);
+
+			if (trimmed.startsWith("cache hit (")) {
+				stats.hits += getLastNumber(trimmed);
+			} else if (trimmed.startsWith("cache miss")) {
+				stats.misses += getLastNumber(trimmed);
+			} else if (trimmed.startsWith("hits:") && !totalHits) {
+				stats.hits = getFirstNumber(trimmed);
+				totalHits = true;
+			} else if (trimmed.startsWith("misses:") && !totalMisses) {
+				stats.misses = getFirstNumber(trimmed);
+				totalMisses = true;
+			}
+
+			return true;
+		}
+
+		private static long getFirstNumber(String line) {
+			Matcher matcher = NUMBER.matcher(line);
+			return matcher.find() ? Long.parseLong(matcher.group()) : 0;
+		}
+
+		private static long getLastNumber(String line) {
+			Matcher matcher = NUMBER.matcher(line);
+			long result = 0;
+			while (matcher.find()) {
+				result = Long.parseLong(matcher.group());
+			}
+			return result;
+		}
+
+		@Override
+		public Stats getResult() {
+			return stats;
+		}
+	}
+}
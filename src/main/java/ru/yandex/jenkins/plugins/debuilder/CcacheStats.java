@@ -0,0 +1,165 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.model.Action;
+import hudson.model.AbstractBuild;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Per-build <i>ccache</i> hits and misses of every distribution built with {@link Ccache}, shown on the build page and exported via the REST API.
+ *
+ * Modules of the same distribution share the cache and may be built concurrently, so their usage can't be told apart:
+ * the statistics are taken when the first of them starts and when the last of them finishes, and the difference is added up per distribution.
+ *
+ * @author pupssman
+ */
+@ExportedBean
+public class CcacheStats implements Action {
+	private final List<Distribution> distributions = new ArrayList<Distribution>();
+
+	// distribution -> statistics of its cache when the modules being built started and how many of them are still building
+	private transient Map<String, Ccache.Stats> startedWith;
+	private transient Map<String, Integer> building;
+
+	/**
+	 * @param build
+	 * @return statistics attached to the build, attached first if there are none yet
+	 */
+	public static CcacheStats of(AbstractBuild<?, ?> build) {
+		synchronized (build) {
+			CcacheStats stats = build.getAction(CcacheStats.class);
+
+			if (stats == null) {
+				stats = new CcacheStats();
+				build.addAction(stats);
+			}
+
+			return stats;
+		}
+	}
+
+	/**
+	 * Should be called before a module is built
+	 *
+	 * @param distribution
+	 * @param stats statistics of the cache of the distribution right now
+	 */
+	public synchronized void started(String distribution, Ccache.Stats stats) {
+		if (building == null) {
+			startedWith = new HashMap<String, Ccache.Stats>();
+			building = new HashMap<String, Integer>();
+		}
+
+		Integer count = building.get(distribution);
+		if (count == null) {
+			startedWith.put(distribution, stats);
+			count = 0;
+		}
+
+		building.put(distribution, count + 1);
+	}
+
+	/**
+	 * Should be called after a module is built, successfully or not
+	 *
+	 * @param distribution
+	 * @param stats statistics of the cache of the distribution right now
+	 * @return usage of the cache by the build so far, or <b>null</b> if other modules of the distribution are still building
+	 */
+	public synchronized Distribution finished(String distribution, Ccache.Stats stats) {
+		Integer count = building == null ? null : building.get(distribution);
+		if (count == null) {
+			return null;
+		}
+
+		if (count > 1) {
+			building.put(distribution, count - 1);
+			return null;
+		}
+
+		building.remove(distribution);
+		Ccache.Stats used = stats.since(startedWith.remove(distribution));
+
+		long hits = used.getHits();
+		long misses = used.getMisses();
+		Iterator<Distribution> existing = distributions.iterator();
+		while (existing.hasNext()) {
+			Distribution earlier = existing.next();
+			if (earlier.getName().equals(distribution)) {
+				hits += earlier.getHits();
+				misses += earlier.getMisses();
+				existing.remove();
+			}
+		}
+
+		Distribution result = new Distribution(distribution, hits, misses);
+		distributions.add(result);
+		return result;
+	}
+
+	@Exported
+	public synchronized List<Distribution> getDistributions() {
+		return new ArrayList<Distribution>(distributions);
+	}
+
+	@Override
+	public String getIconFileName() {
+		return null;
+	}
+
+	@Override
+	public String getDisplayName() {
+		return "ccache statistics";
+	}
+
+	@Override
+	public String getUrlName() {
+		return null;
+	}
+
+	/**
+	 * Cache usage by the modules of a distribution
+	 */
+	@ExportedBean(defaultVisibility = 2)
+	public static final class Distribution {
+		private final String name;
+		private final long hits;
+		private final long misses;
+
+		public Distribution(String name, long hits, long misses) {
+			this.name = name;
+			this.hits = hits;
+			this.misses = misses;
+		}
+
+		@Exported
+		public String getName() {
+			return name;
+		}
+
+		@Exported
+		public long getHits() {
+			return hits;
+		}
+
+		@Exported
+		public long getMisses() {
+			return misses;
+		}
+
+		/**
+		 * @return percentage of compilations served from the cache, 0 if nothing was compiled
+		 */
+		@Exported
+		public int getHitRatio() {
+			return hits + misses == 0 ? 0 : (int) (hits * 100 / (hits + misses));
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pojo to store a single version stanza of debian/changelog
+ *
+ * @author pupssman
+ */
+public final class ChangelogEntry implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final String source;
+	private final String version;
+	private final String distribution;
+	private final String urgency;
+	private final String maintainer;
+	private final String date;
+	private final ArrayList<String> changes;
+
+	public ChangelogEntry(String source, String version, String distribution, String urgency, String maintainer, String date, List<String> changes) {
+		this.source = source;
+		this.version = version;
+		this.distribution = distribution;
+		this.urgency = urgency;
+		this.maintainer = maintainer;
+		this.date = date;
+		this.changes = new ArrayList<String>(changes);
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	public String getDistribution() {
+		return distribution;
+	}
+
+	public String getUrgency() {
+		return urgency;
+	}
+
+	/**
+	 * @return maintainer from the trailer line, as in <i>Name &lt;email&gt;</i>
+	 */
+	public String getMaintainer() {
+		return maintainer;
+	}
+
+	public String getDate() {
+		return date;
+	}
+
+	/**
+	 * @return change entries without bullets, with continuation lines joined
+	 */
+	public List<String> getChanges() {
+		return changes;
+	}
+
+	@Override
+	public String toString() {
+		return source + " (" + version + ") " + distribution + "; urgency=" + urgency;
+	}
+}
@@ -0,0 +1,102 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Reads the latest version stanza of debian/changelog, the way <i>dpkg-parsechangelog</i> does, but in-process.
+ * Only the first stanza is read: parsing stops right after its trailer line.
+ *
+ * Should be invoked on the changelog file itself.
+ *
+ * @author pupssman
+ */
+public class ChangelogParser extends MasterToSlaveFileCallable<ChangelogEntry> {
+	private static final long serialVersionUID = 1L;
+
+	private static final Pattern HEADER = Pattern.compile("^(\\S+) \\(([^\\s)]+)\\)\\s+([^;]+);(.*)$");
+	private static final Pattern URGENCY = Pattern.compile("(?:^|,)\\s*urgency=([^,\\s]+)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern TRAILER = Pattern.compile("^ -- (.*?<[^>]*>)\\s+(\\S.*)$");
+
+	@Override
+	public ChangelogEntry invoke(File changelog, VirtualChannel channel) throws IOException, InterruptedException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(changelog), "UTF-8"));
+		try {
+			return parse(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * @param reader
+	 * @return the first stanza read from <b>reader</b>
+	 * @throws IOException if there is no valid stanza
+	 */
+	public static ChangelogEntry parse(BufferedReader reader) throws IOException {
+		String line = reader.readLine();
+		while (line != null && line.trim().isEmpty()) {
+			line = reader.readLine();
+		}
+
+		if (line == null) {
+			throw new IOException("Changelog is empty");
+		}
+
+		Matcher header = HEADER.matcher(line);
+		if (!header.matches()) {
+			throw new IOException(MessageFormat.format("Malformed changelog header <{0}>", line));
+		}
+
+		Matcher urgencyMatcher = URGENCY.matcher(header.group(4));
+		String urgency = urgencyMatcher.find() ? urgencyMatcher.group(1) : "";
+
+		List<String> changes = new ArrayList<String>();
+		StringBuilder change = null;
+
+		while ((line = reader.readLine()) != null) {
+			if (line.startsWith(" -- ")) {
+				addChange(changes, change);
+
+				Matcher trailer = TRAILER.matcher(line);
+				if (!trailer.matches()) {
+					throw new IOException(MessageFormat.format("Malformed changelog trailer <{0}>", line));
+				}
+
+				return new ChangelogEntry(header.group(1), header.group(2), header.group(3).trim(), urgency, trailer.group(1).trim(), trailer.group(2).trim(), changes);
+			}
+
+			String text = line.trim();
+
+			if (text.isEmpty() || (text.startsWith("[") && text.endsWith("]"))) {
+				addChange(changes, change);
+				change = null;
+			} else if (text.startsWith("* ") || text.startsWith("- ") || change == null) {
+				addChange(changes, change);
+				change = new StringBuilder(text.startsWith("* ") || text.startsWith("- ") ? text.substring(2).trim() : text);
+			} else {
+				change.append(' ').append(text);
+			}
+		}
+
+		throw new IOException("Changelog stanza has no trailer line");
+	}
+
+	private static void addChange(List<String> changes, StringBuilder change) {
+		if (change != null) {
+			changes.add(change.toString());
+		}
+	}
+}
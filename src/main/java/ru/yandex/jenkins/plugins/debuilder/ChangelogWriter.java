@@ -0,0 +1,145 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import jenkins.MasterToSlaveFileCallable;
+import ru.yandex.jenkins.plugins.debuilder.ChangesExtractor.Change;
+
+import com.google.common.io.Files;
+
+/**
+ * Prepends a new version stanza to debian/changelog in a single write, formatted the way <i>dch</i> does it:
+ * entries are wrapped at 80 columns and grouped by author with <i>[ Name ]</i> markers when there is more than one author.
+ *
+ * Should be invoked on the changelog file itself.
+ *
+ * @author pupssman
+ */
+public class ChangelogWriter extends MasterToSlaveFileCallable<Void> {
+	private static final long serialVersionUID = 1L;
+	// Text::Wrap columns of dch, which keeps lines one character shorter
+	private static final int WIDTH = 80;
+	private static final String URGENCY = "medium";
+	private static final String DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss Z";
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private final String source;
+	private final String version;
+	private final String distribution;
+	private final String maintainerName;
+	private final String maintainerEmail;
+	private final String versionMessage;
+	private final ArrayList<Change> changes;
+
+	/**
+	 * @param source name of the source package
+	 * @param version the new version
+	 * @param distribution
+	 * @param maintainerName name to sign the stanza with, also the author of the <b>versionMessage</b>
+	 * @param maintainerEmail
+	 * @param versionMessage first entry of the stanza
+	 * @param changes the rest of the entries
+	 */
+	public ChangelogWriter(String source, String version, String distribution, String maintainerName, String maintainerEmail, String versionMessage, List<Change> changes) {
+		this.source = source;
+		this.version = version;
+		this.distribution = distribution;
+		this.maintainerName = maintainerName;
+		this.maintainerEmail = maintainerEmail;
+		this.versionMessage = versionMessage;
+		this.changes = new ArrayList<Change>(changes);
+	}
+
+	@Override
+	public Void invoke(File changelog, VirtualChannel channel) throws IOException, InterruptedException {
+		File updated = new File(changelog.getParentFile(), changelog.getName() + ".new");
+
+		OutputStream output = new FileOutputStream(updated);
+		try {
+			Writer writer = new OutputStreamWriter(output, "UTF-8");
+			writer.write(getStanza(new Date()));
+
+			if (changelog.exists()) {
+				writer.write('\n');
+				writer.flush();
+				Files.copy(changelog, output);
+			} else {
+				writer.flush();
+			}
+		} finally {
+			output.close();
+		}
+
+		if (!updated.renameTo(changelog)) {
+			updated.delete();
+			throw new IOException(MessageFormat.format("Failed to replace {0}", changelog.getPath()));
+		}
+
+		return null;
+	}
+
+	String getStanza(Date date) {
+		StringBuilder stanza = new StringBuilder();
+
+		stanza.append(MessageFormat.format("{0} ({1}) {2}; urgency={3}\n\n", source, version, distribution, URGENCY));
+
+		List<Change> entries = new ArrayList<Change>();
+		entries.add(new Change(maintainerName, versionMessage));
+		entries.addAll(changes);
+
+		boolean multipleAuthors = false;
+		for (Change entry: entries) {
+			multipleAuthors |= !entry.getAuthor().equals(maintainerName);
+		}
+
+		String currentAuthor = null;
+		for (Change entry: entries) {
+			String message = WHITESPACE.matcher(entry.getMessage().trim()).replaceAll(" ");
+			if (message.isEmpty()) {
+				continue;
+			}
+
+			if (multipleAuthors && !entry.getAuthor().equals(currentAuthor)) {
+				if (currentAuthor != null) {
+					stanza.append('\n');
+				}
+				stanza.append("  [ ").append(entry.getAuthor()).append(" ]\n");
+				currentAuthor = entry.getAuthor();
+			}
+
+			appendWrapped(stanza, message);
+		}
+
+		stanza.append(MessageFormat.format("\n -- {0} <{1}>  {2}\n", maintainerName, maintainerEmail, new SimpleDateFormat(DATE_FORMAT, Locale.US).format(date)));
+
+		return stanza.toString();
+	}
+
+	private void appendWrapped(StringBuilder stanza, String message) {
+		StringBuilder line = new StringBuilder("  *");
+
+		for (String word: message.split(" ")) {
+			if (line.length() > 4 && line.length() + 1 + word.length() >= WIDTH) {
+				stanza.append(line).append('\n');
+				line = new StringBuilder("   ");
+			}
+			line.append(' ').append(word);
+		}
+
+		stanza.append(line).append('\n');
+	}
+}
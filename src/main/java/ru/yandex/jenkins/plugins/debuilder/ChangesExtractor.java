@@ -3,15 +3,12 @@ package ru.yandex.jenkins.plugins.debuilder;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.model.AbstractBuild;
-import hudson.model.BuildListener;
 import hudson.model.Run;
-import hudson.plugins.git.GitChangeSet;
 import hudson.plugins.git.GitSCM;
-import hudson.plugins.git.extensions.impl.RelativeTargetDirectory;
+import hudson.plugins.git.util.BuildData;
 import hudson.scm.*;
 import jenkins.model.Jenkins;
 
-import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.jenkinsci.plugins.gitclient.GitClient;
 import org.tmatesoft.svn.core.ISVNLogEntryHandler;
@@ -22,38 +19,132 @@ import org.tmatesoft.svn.core.auth.ISVNAuthenticationProvider;
 import org.tmatesoft.svn.core.wc.SVNRevision;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static hudson.scm.SubversionSCM.ModuleLocation;
+import static ru.yandex.jenkins.plugins.debuilder.ChangesIndex.ModuleIndex;
 import static ru.yandex.jenkins.plugins.debuilder.DebUtils.Runner;
 import static ru.yandex.jenkins.plugins.debuilder.DebianPackageBuilder.DescriptorImpl;
 
 public class ChangesExtractor {
 
 	public static List<Change> getChanges(AbstractBuild build, Runner runner, SCM scm, String remoteDebian, String ourMessage, VersionHelper helper) throws DebianizingException, InterruptedException {
-		BuildListener listener = runner.getListener();
+		String key = getModuleKey(build, remoteDebian);
+		// changes are calculated on a snapshot, so that the index is not locked while the SCM is queried
+		ModuleIndex module = loadIndex(build).getModule(key);
+		List<Change> changes;
+
 		if (scm instanceof SubversionSCM) {
 			String oldRevision = helper.getRevision();
 			helper.setRevision(getSVNRevision(build, runner, (SubversionSCM) scm, remoteDebian));
 			if ("".equals(oldRevision)) {
 				runner.announce("No last revision known, using changes since last successful build to populate debian/changelog");
-				return getChangesSinceLastBuild(build, ourMessage);
+				changes = getIndexedChangesSinceLastBuild(build, runner, module, ourMessage);
 			} else {
 				runner.announce("Calculating changes since revision {0}.", oldRevision);
-				return getChangesFromSubversion(build, runner, (SubversionSCM) scm, remoteDebian, oldRevision, helper.getRevision(), ourMessage);
+				changes = getIndexedChangesFromSubversion(build, runner, (SubversionSCM) scm, remoteDebian, module, oldRevision, helper.getRevision(), ourMessage);
 			}
 		} else if (scm instanceof GitSCM) {
 			runner.announce("Calculating changes from git log");
-			return getChangesFromGit(build, listener, (GitSCM) scm, remoteDebian);
+			changes = getChangesFromGit(build, runner, remoteDebian, module);
 		} else {
 			runner.announce("SCM in use is not Subversion nor Git (but <{0}> instead), defaulting to changes since last build", scm.getClass().getName());
-			return getChangesSinceLastBuild(build, ourMessage);
+			changes = getIndexedChangesSinceLastBuild(build, runner, module, ourMessage);
+		}
+
+		synchronized (ChangesIndex.class) {
+			// reloaded under the lock not to lose what concurrent builds and modules have recorded meanwhile
+			ChangesIndex index = loadIndex(build);
+			index.getModule(key).setPending(module.getBaseRevision(), module.getHeadRevision(), module.getPending());
+			saveIndex(build, index);
+		}
+
+		return changes;
+	}
+
+	/**
+	 * Remembers in the changes index that the changes calculated for the module were packaged as the given version
+	 * @param build
+	 * @param remoteDebian
+	 * @param version
+	 * @throws DebianizingException
+	 */
+	public static void recordPackagedVersion(AbstractBuild build, String remoteDebian, String version) throws DebianizingException {
+		synchronized (ChangesIndex.class) {
+			ChangesIndex index = loadIndex(build);
+			index.getModule(getModuleKey(build, remoteDebian)).recordPackaged(version);
+			saveIndex(build, index);
+		}
+	}
+
+	private static ChangesIndex loadIndex(AbstractBuild build) throws DebianizingException {
+		try {
+			return ChangesIndex.load(build.getProject());
+		} catch (IOException e) {
+			throw new DebianizingException("Failed to load changes index: " + e.getMessage(), e);
+		}
+	}
+
+	private static void saveIndex(AbstractBuild build, ChangesIndex index) throws DebianizingException {
+		try {
+			index.save(build.getProject());
+		} catch (IOException e) {
+			throw new DebianizingException("Failed to save changes index: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return path of the module relative to the workspace, so that index survives workspace relocation
+	 */
+	static String getModuleKey(AbstractBuild build, String remoteDebian) {
+		String workspace = build.getWorkspace().getRemote();
+
+		if (remoteDebian.startsWith(workspace)) {
+			return remoteDebian.substring(workspace.length()).replaceFirst("^[/\\\\]+", "");
+		} else {
+			return remoteDebian;
+		}
+	}
+
+	static List<Change> getIndexedChangesFromSubversion(AbstractBuild build, Runner runner, SubversionSCM scm, String remoteDebian, ModuleIndex module, String oldRevision, String currentRevision, String ourMessage) throws DebianizingException {
+		String since = oldRevision;
+		List<Change> changes = new ArrayList<Change>();
+
+		if (module.isIndexedSince(oldRevision) && Long.parseLong(module.getHeadRevision()) <= Long.parseLong(currentRevision)) {
+			since = module.getHeadRevision();
+			changes.addAll(module.getPending());
+			runner.announce("Reusing {0} indexed changes up to revision {1}", changes.size(), since);
+		}
+
+		if (!since.equals(currentRevision)) {
+			changes.addAll(getChangesFromSubversion(build, runner, scm, remoteDebian, since, currentRevision, ourMessage));
+		}
+
+		module.setPending(oldRevision, currentRevision, changes);
+		return changes;
+	}
+
+	@SuppressWarnings("rawtypes")
+	static List<Change> getIndexedChangesSinceLastBuild(AbstractBuild build, Runner runner, ModuleIndex module, String ourMessage) {
+		Run lastSuccessfulBuild = build.getProject().getLastSuccessfulBuild();
+		String lastSuccessNumber = Integer.toString(lastSuccessfulBuild == null ? 0 : lastSuccessfulBuild.number);
+
+		int since = Integer.parseInt(lastSuccessNumber);
+		List<Change> changes = new ArrayList<Change>();
+
+		if (module.isIndexedSince(lastSuccessNumber) && Integer.parseInt(module.getHeadRevision()) < build.number) {
+			since = Integer.parseInt(module.getHeadRevision());
+			changes.addAll(module.getPending());
+			runner.announce("Reusing {0} indexed changes up to build #{1}", changes.size(), since);
 		}
+
+		changes.addAll(getChangesSinceBuild(build, since, ourMessage));
+
+		module.setPending(lastSuccessNumber, Integer.toString(build.number), changes);
+		return changes;
 	}
 
 	static String getSVNRevision(@SuppressWarnings("rawtypes") AbstractBuild build, Runner runner, SubversionSCM scm, String remoteDebian) throws DebianizingException {
@@ -126,29 +217,36 @@ public class ChangesExtractor {
 	}
 
 	/**
-	 * Extract all commits from git log since last debian/changelog change
+	 * Extract all commits from git log since last debian/changelog change.
+	 * Results are indexed per job and module by the built HEAD revision, so rebuilding the same commit doesn't touch git at all,
+	 * and building a descendant of the indexed commit only walks the new commits.
+	 * The walk itself runs on the node holding the clone.
 	 * @param build
-	 * @param listener
-	 * @param scm
+	 * @param runner
 	 * @param remoteDebian
+	 * @param module
 	 * @return
 	 * @throws DebianizingException
 	 */
-	static List<Change> getChangesFromGit(AbstractBuild build, BuildListener listener, GitSCM scm, String remoteDebian) throws DebianizingException {
-		try {
-			EnvVars environment = build.getEnvironment(listener);
-			FilePath workspace = build.getWorkspace();
-//			method signature changed in latest Git plugin, @since 2.3.4
-			GitClient cli = scm.createClient(listener, environment, build, workspace);
-
-			String relativeTargetDirectory = "";
-			if(scm.getExtensions().get(RelativeTargetDirectory.class) != null) {
-				relativeTargetDirectory = scm.getExtensions().get(RelativeTargetDirectory.class).getRelativeTargetDir();
-			}
+	static List<Change> getChangesFromGit(AbstractBuild build, Runner runner, String remoteDebian, ModuleIndex module) throws DebianizingException {
+		String head = getBuiltRevision(build);
+
+		if (head != null && head.equals(module.getHeadRevision())) {
+			runner.announce("Reusing changes calculated for revision {0}", head);
+			return module.getPending();
+		}
 
+		try {
 			DescriptorImpl descriptor = (DescriptorImpl) Jenkins.getInstance().getDescriptor(DebianPackageBuilder.class);
 			PersonIdent account = new PersonIdent(descriptor.getAccountName(), descriptor.getAccountEmail());
-			return getChangesFromGit(cli, workspace, relativeTargetDirectory, remoteDebian, account);
+			GitChangelogWalker walker = new GitChangelogWalker(remoteDebian, account, module.getHeadRevision(), module.getPending());
+
+			// the whole walk runs on the node next to the clone, only the changes come back
+			List<Change> changes = new FilePath(runner.getChannel(), remoteDebian).act(new GitChangelogWalker.OnNode(walker));
+
+			// without a revision recorded by git plugin the changes are not reused next time
+			module.setPending(null, head, changes);
+			return changes;
 		} catch (IOException e) {
 			throw new DebianizingException("IOException: " + e.getMessage(), e);
 		} catch (InterruptedException e) {
@@ -156,61 +254,28 @@ public class ChangesExtractor {
 		}
 	}
 
-	static List<Change> getChangesFromGit(GitClient cli, FilePath workspace, String relativeTargetDirectory, String remoteDebian, PersonIdent account) throws InterruptedException {
-		String changelogPath = remoteDebian + "/changelog";
-		LinkedList<Change> changesSinceLastChangelogModification = new LinkedList<Change>();
-		LinkedList<Change> changesSinceLastChangelogModificationByPlugin = new LinkedList<Change>();
-		boolean firstChangelogModificationFound = false;
-
-		for (ObjectId rev : cli.revListAll()) {
-			List<String> lines = cli.showRevision(rev);
-			GitChangeSet changeSet = new GitChangeSet(lines, true);
-			String email = getAuthorEmailFromGitRevision(lines);
-			Change change = new Change(changeSet.getAuthorName(), changeSet.getMsg());
-
-			for (GitChangeSet.Path path : changeSet.getPaths()) {
-				String filePath = workspace.child(relativeTargetDirectory).child(path.getPath()).getRemote();
-				if (filePath.equals(changelogPath)) {
-					if (changeSet.getAuthorName().equals(account.getName())
-						& email.equals(account.getEmailAddress())) {
-						return changesSinceLastChangelogModificationByPlugin;
-					} else {
-						firstChangelogModificationFound = true;
-					}
-				}
-			}
-			if (!firstChangelogModificationFound) {
-				changesSinceLastChangelogModification.addFirst(change);
-			}
-			changesSinceLastChangelogModificationByPlugin.addFirst(change);
-		}
-		return changesSinceLastChangelogModification;
+	static List<Change> getChangesFromGit(GitClient cli, String remoteDebian, PersonIdent account) throws IOException, InterruptedException {
+		return cli.withRepository(new GitChangelogWalker(remoteDebian, account, null, new ArrayList<Change>()));
 	}
 
-	/*
-		This is temporary solution. GitChangeSet doesn't provide any method to extract email of commit author now.
+	/**
+	 * @return SHA1 of the revision checked out for this build as recorded by git plugin or <b>null</b> if unknown
 	 */
-	static String getAuthorEmailFromGitRevision(List<String> lines) {
-		Pattern pattern = Pattern.compile("^author [^<]*<(.*)> .*$");
+	static String getBuiltRevision(AbstractBuild build) {
+		BuildData buildData = (BuildData) build.getAction(BuildData.class);
 
-		for (String line: lines) {
-			Matcher matcher = pattern.matcher(line);
-			if (matcher.matches()) {
-				return matcher.group(1);
-			}
+		if (buildData == null || buildData.getLastBuiltRevision() == null) {
+			return null;
 		}
 
-		return "";
+		return buildData.getLastBuiltRevision().getSha1String();
 	}
 
 	@SuppressWarnings({ "rawtypes", "unchecked" })
-	static List<Change> getChangesSinceLastBuild(AbstractBuild build, String ourMessage) throws InterruptedException, DebianizingException {
+	static List<Change> getChangesSinceBuild(AbstractBuild build, int since, String ourMessage) {
 		List<Change> result = new ArrayList<Change>();
-		Run lastSuccessfulBuild = build.getProject().getLastSuccessfulBuild();
-
-		int lastSuccessNumber = lastSuccessfulBuild == null ? 0 : lastSuccessfulBuild.number;
 
-		for (int num = lastSuccessNumber + 1; num <= build.number; num ++) {
+		for (int num = since + 1; num <= build.number; num ++) {
 			AbstractBuild run = build.getProject().getBuildByNumber(num);
 
 			if (run == null) {
@@ -234,7 +299,9 @@ public class ChangesExtractor {
 	 *
 	 * @author pupssman
 	 */
-	public static final class Change {
+	public static final class Change implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		private final String author;
 		private final String message;
 
@@ -262,5 +329,10 @@ public class ChangesExtractor {
 			Change that = (Change) obj;
 			return this.author.equals(that.author) && this.message.equals(that.message);
 		}
+
+		@Override
+		public int hashCode() {
+			return author.hashCode() * 31 + message.hashCode();
+		}
 	}
 }
@@ -0,0 +1,171 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Pojo to store the list of files referenced by a <i>.changes</i> file, along with their sizes and checksums
+ *
+ * @author pupssman
+ */
+public final class ChangesFile implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final String name;
+	private final ArrayList<Entry> entries;
+
+	public ChangesFile(String name, List<Entry> entries) {
+		this.name = name;
+		this.entries = new ArrayList<Entry>(entries);
+	}
+
+	/**
+	 * @return name of the .changes file itself
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @param source name of the source package
+	 * @param version version of the source package, epoch is not a part of file names
+	 * @return common prefix of .changes names for the given version, as in <i>foo_1.0-1_</i> for <i>foo_1.0-1_amd64.changes</i>
+	 */
+	public static String getNamePrefix(String source, String version) {
+		int colon = version.indexOf(':');
+		return source + "_" + (colon < 0 ? version : version.substring(colon + 1)) + "_";
+	}
+
+	/**
+	 * Reads a .changes file, should be invoked on the file itself
+	 */
+	public static final class Reader extends MasterToSlaveFileCallable<ChangesFile> {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public ChangesFile invoke(File changes, VirtualChannel channel) throws IOException, InterruptedException {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(changes), "UTF-8"));
+			try {
+				return parse(changes.getName(), reader);
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads <i>Files</i> and <i>Checksums-Sha256</i> fields, skipping PGP armor if the file is signed
+	 *
+	 * @param name
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 */
+	public static ChangesFile parse(String name, BufferedReader reader) throws IOException {
+		Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		String field = "";
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.startsWith("-----BEGIN PGP SIGNATURE")) {
+				break;
+			}
+
+			if (line.startsWith(" ") || line.startsWith("\t")) {
+				String[] values = line.trim().split("\\s+");
+
+				if (field.equals("files") && values.length == 5) {
+					getEntry(entries, values[4]).setSize(Long.parseLong(values[1])).setMd5(values[0]);
+				} else if (field.equals("checksums-sha256") && values.length == 3) {
+					getEntry(entries, values[2]).setSize(Long.parseLong(values[1])).setSha256(values[0]);
+				}
+			} else {
+				int colon = line.indexOf(':');
+				field = colon > 0 ? line.substring(0, colon).trim().toLowerCase() : "";
+			}
+		}
+
+		if (entries.isEmpty()) {
+			throw new IOException("No files are listed in " + name);
+		}
+
+		return new ChangesFile(name, new ArrayList<Entry>(entries.values()));
+	}
+
+	private static Entry getEntry(Map<String, Entry> entries, String name) {
+		Entry entry = entries.get(name);
+
+		if (entry == null) {
+			entry = new Entry(name);
+			entries.put(name, entry);
+		}
+
+		return entry;
+	}
+
+	/**
+	 * A single file listed in .changes
+	 */
+	public static final class Entry implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private long size;
+		private String md5;
+		private String sha256;
+
+		public Entry(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		Entry setSize(long size) {
+			this.size = size;
+			return this;
+		}
+
+		public String getMd5() {
+			return md5;
+		}
+
+		Entry setMd5(String md5) {
+			this.md5 = md5;
+			return this;
+		}
+
+		/**
+		 * @return SHA-256 of the file or <b>null</b> if .changes doesn't list it
+		 */
+		public String getSha256() {
+			return sha256;
+		}
+
+		Entry setSha256(String sha256) {
+			this.sha256 = sha256;
+			return this;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jenkins.model.Jenkins;
+import ru.yandex.jenkins.plugins.debuilder.ChangesExtractor.Change;
+
+/**
+ * Per-job on-disk index of calculated changes, stored in the job directory.
+ *
+ * For every module it keeps the changes calculated so far (pending ones, valid since some base revision up to the indexed head)
+ * and the history of packaged versions along with the SCM revisions and the changes they were built from.
+ * This lets the next build fetch only the delta since the indexed head instead of recalculating everything.
+ *
+ * @author pupssman
+ */
+public class ChangesIndex {
+	private static final String FILE_NAME = "debian-package-builder-changes.xml";
+	private static final int HISTORY_SIZE = 50;
+
+	private Map<String, ModuleIndex> modules = new HashMap<String, ModuleIndex>();
+
+	/**
+	 * @param project
+	 * @return index stored in the directory of the project or an empty one if there is none yet
+	 */
+	public static synchronized ChangesIndex load(AbstractProject<?, ?> project) throws IOException {
+		XmlFile file = getFile(project);
+
+		if (!file.exists()) {
+			return new ChangesIndex();
+		}
+
+		ChangesIndex index = (ChangesIndex) file.read();
+		if (index.modules == null) {
+			index.modules = new HashMap<String, ModuleIndex>();
+		}
+
+		return index;
+	}
+
+	public synchronized void save(AbstractProject<?, ?> project) throws IOException {
+		getFile(project).write(this);
+	}
+
+	private static XmlFile getFile(AbstractProject<?, ?> project) {
+		return new XmlFile(Jenkins.XSTREAM, new File(project.getRootDir(), FILE_NAME));
+	}
+
+	/**
+	 * @param module path of the module relative to the workspace
+	 * @return index of the given module, created if missing
+	 */
+	public synchronized ModuleIndex getModule(String module) {
+		ModuleIndex result = modules.get(module);
+
+		if (result == null) {
+			result = new ModuleIndex();
+			modules.put(module, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Changes known for a single module
+	 */
+	public static final class ModuleIndex {
+		private String baseRevision;
+		private String headRevision;
+		private List<Change> pending = new ArrayList<Change>();
+		private List<PackagedVersion> packaged = new ArrayList<PackagedVersion>();
+
+		/**
+		 * @return revision the pending changes are calculated since or <b>null</b> if nothing is indexed
+		 */
+		public String getBaseRevision() {
+			return baseRevision;
+		}
+
+		/**
+		 * @return latest revision the pending changes include or <b>null</b> if nothing is indexed
+		 */
+		public String getHeadRevision() {
+			return headRevision;
+		}
+
+		public List<Change> getPending() {
+			return pending == null ? new ArrayList<Change>() : new ArrayList<Change>(pending);
+		}
+
+		/**
+		 * @param baseRevision
+		 * @return <b>true</b> if the pending changes were calculated since the given base revision
+		 */
+		public boolean isIndexedSince(String baseRevision) {
+			return headRevision != null && baseRevision != null && baseRevision.equals(this.baseRevision);
+		}
+
+		public void setPending(String baseRevision, String headRevision, List<Change> changes) {
+			this.baseRevision = baseRevision;
+			this.headRevision = headRevision;
+			this.pending = new ArrayList<Change>(changes);
+		}
+
+		public List<PackagedVersion> getPackaged() {
+			return packaged == null ? new ArrayList<PackagedVersion>() : new ArrayList<PackagedVersion>(packaged);
+		}
+
+		/**
+		 * Remembers that the pending changes were packaged as the given version
+		 * @param version
+		 */
+		public void recordPackaged(String version) {
+			if (packaged == null) {
+				packaged = new ArrayList<PackagedVersion>();
+			}
+
+			packaged.add(new PackagedVersion(version, headRevision, getPending()));
+
+			while (packaged.size() > HISTORY_SIZE) {
+				packaged.remove(0);
+			}
+		}
+	}
+
+	/**
+	 * Packaged version along with the revision and changes it was built from
+	 */
+	public static final class PackagedVersion {
+		private final String version;
+		private final String revision;
+		private final List<Change> changes;
+
+		public PackagedVersion(String version, String revision, List<Change> changes) {
+			this.version = version;
+			this.revision = revision;
+			this.changes = changes;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		public String getRevision() {
+			return revision;
+		}
+
+		public List<Change> getChanges() {
+			return changes;
+		}
+	}
+}
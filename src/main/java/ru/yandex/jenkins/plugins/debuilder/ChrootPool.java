@@ -0,0 +1,272 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+import ru.yandex.jenkins.plugins.debuilder.DebUtils.Runner;
+
+/**
+ * Pool of pre-warmed <i>cowbuilder</i> base chroots, one per distribution on each node, stored under {@link #ROOT}.
+ *
+ * Builds clone a base copy-on-write and never modify it, so any number of them can share it,
+ * while {@link Refresher} brings the bases up to date in background, waiting for the builds using them to finish.
+ * Bases known to the pool are stored in Jenkins root directory to be refreshed after restart.
+ *
+ * @author pupssman
+ */
+public class ChrootPool {
+	public static final String ROOT = "/var/cache/pbuilder/debian-package-builder";
+	private static final String FILE_NAME = "debian-package-builder-chroots.xml";
+	private static final Logger LOGGER = Logger.getLogger(ChrootPool.class.getName());
+
+	// node + distribution -> lock, read by builds, written by creation and refresh
+	private static final ConcurrentMap<String, ReentrantReadWriteLock> locks = new ConcurrentHashMap<String, ReentrantReadWriteLock>();
+
+	private static Registry registry;
+
+	/**
+	 * @param distribution
+	 * @return path to the base chroot of the distribution on any node
+	 */
+	public static String getBasePath(String distribution) {
+		return ROOT + "/" + distribution + ".cow";
+	}
+
+	/**
+	 * Makes sure the base chroot of the distribution exists on the node, creating it if needed,
+	 * and keeps it from being refreshed until the lease is released
+	 *
+	 * @param runner
+	 * @param node name of the node the runner runs commands on
+	 * @param distribution
+	 * @param createOptions extra options for <i>cowbuilder --create</i>, like <i>--mirror</i>
+	 * @return lease to release once the build is done
+	 * @throws InterruptedException
+	 * @throws DebianizingException
+	 */
+	public static Lease acquire(Runner runner, String node, String distribution, String createOptions) throws InterruptedException, DebianizingException {
+		String basePath = getBasePath(distribution);
+		ReentrantReadWriteLock lock = getLock(node, distribution);
+
+		boolean exists = false;
+		lock.readLock().lockInterruptibly();
+		try {
+			exists = runner.runCommandForResult("test -d ''{0}''", basePath);
+		} finally {
+			if (!exists) {
+				lock.readLock().unlock();
+			}
+		}
+
+		if (exists) {
+			runner.announce("Using base chroot {0} on <{1}>", basePath, node);
+			return new Lease(lock);
+		}
+
+		lock.writeLock().lockInterruptibly();
+		try {
+			if (!runner.runCommandForResult("test -d ''{0}''", basePath)) {
+				runner.announce("Creating base chroot {0} on <{1}>", basePath, node);
+				runner.runCommand("sudo mkdir -p ''{0}'' && sudo cowbuilder --create --distribution ''{1}'' --basepath ''{2}'' {3}", ROOT, distribution, basePath, createOptions);
+			}
+
+			getRegistry().add(node, distribution, createOptions);
+
+			// downgrade, so that the base is not refreshed while in use
+			lock.readLock().lock();
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		return new Lease(lock);
+	}
+
+	private static ReentrantReadWriteLock getLock(String node, String distribution) {
+		String key = node + "/" + distribution;
+		ReentrantReadWriteLock lock = locks.get(key);
+
+		if (lock == null) {
+			// fair, so that refresh is not starved by the builds
+			locks.putIfAbsent(key, new ReentrantReadWriteLock(true));
+			lock = locks.get(key);
+		}
+
+		return lock;
+	}
+
+	private static synchronized Registry getRegistry() {
+		if (registry == null) {
+			registry = Registry.load();
+		}
+
+		return registry;
+	}
+
+	/**
+	 * Use of a base chroot by a build
+	 */
+	public static final class Lease {
+		private final ReentrantReadWriteLock lock;
+
+		private Lease(ReentrantReadWriteLock lock) {
+			this.lock = lock;
+		}
+
+		public void release() {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Base chroots known to the pool, persisted in Jenkins root directory
+	 */
+	static final class Registry {
+		private List<Base> bases = new ArrayList<Base>();
+
+		private static XmlFile getFile() {
+			return new XmlFile(Jenkins.XSTREAM, new File(Jenkins.getInstance().getRootDir(), FILE_NAME));
+		}
+
+		static Registry load() {
+			XmlFile file = getFile();
+			Registry result = null;
+
+			if (file.exists()) {
+				try {
+					result = (Registry) file.read();
+				} catch (IOException e) {
+					LOGGER.log(Level.WARNING, "Failed to read " + file, e);
+				}
+			}
+
+			if (result == null) {
+				result = new Registry();
+			}
+
+			if (result.bases == null) {
+				result.bases = new ArrayList<Base>();
+			}
+
+			return result;
+		}
+
+		synchronized void add(String node, String distribution, String createOptions) {
+			for (Base base: bases) {
+				if (base.node.equals(node) && base.distribution.equals(distribution)) {
+					return;
+				}
+			}
+
+			bases.add(new Base(node, distribution, createOptions));
+			save();
+		}
+
+		synchronized List<Base> getBases() {
+			return new ArrayList<Base>(bases);
+		}
+
+		synchronized void save() {
+			try {
+				getFile().write(this);
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Failed to save base chroots", e);
+			}
+		}
+	}
+
+	static final class Base {
+		private final String node;
+		private final String distribution;
+		private final String createOptions;
+		private long refreshed = System.currentTimeMillis();
+
+		Base(String node, String distribution, String createOptions) {
+			this.node = node;
+			this.distribution = distribution;
+			this.createOptions = createOptions;
+		}
+	}
+
+	/**
+	 * Runs <i>cowbuilder --update</i> for every base chroot not refreshed for longer than configured,
+	 * forgetting the bases of the nodes which are gone
+	 */
+	@Extension
+	public static final class Refresher extends AsyncPeriodicWork {
+		public Refresher() {
+			super("Debian chroots refresh");
+		}
+
+		@Override
+		public long getRecurrencePeriod() {
+			return HOUR;
+		}
+
+		@Override
+		protected void execute(TaskListener listener) throws IOException, InterruptedException {
+			DebianPackageBuilder.DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(DebianPackageBuilder.DescriptorImpl.class);
+			long interval = TimeUnit.HOURS.toMillis(descriptor.getChrootRefreshInterval());
+			Registry registry = getRegistry();
+
+			for (Base base: registry.getBases()) {
+				if (System.currentTimeMillis() - base.refreshed < interval) {
+					continue;
+				}
+
+				Node node = base.node.isEmpty() ? Jenkins.getInstance() : Jenkins.getInstance().getNode(base.node);
+				if (node == null) {
+					listener.getLogger().println(MessageFormat.format("Node <{0}> is gone, forgetting its {1} chroot", base.node, base.distribution));
+					synchronized (registry) {
+						registry.bases.remove(base);
+					}
+					registry.save();
+					continue;
+				}
+
+				Computer computer = node.toComputer();
+				if (computer == null || computer.isOffline()) {
+					continue;
+				}
+
+				refresh(node, base, listener);
+				registry.save();
+			}
+		}
+
+		private void refresh(Node node, Base base, TaskListener listener) throws IOException, InterruptedException {
+			String command = MessageFormat.format("sudo cowbuilder --update --basepath ''{0}'' {1}", getBasePath(base.distribution), base.createOptions);
+			ReentrantReadWriteLock lock = getLock(base.node, base.distribution);
+
+			lock.writeLock().lockInterruptibly();
+			try {
+				listener.getLogger().println(MessageFormat.format("Refreshing {0} chroot on <{1}>", base.distribution, base.node));
+				int code = node.createLauncher(listener).launch().cmds("bash", "-c", command).stdout(listener).join();
+
+				if (code == 0) {
+					base.refreshed = System.currentTimeMillis();
+				} else {
+					listener.error(MessageFormat.format("Failed to refresh {0} chroot on <{1}>: exit code {2}", base.distribution, base.node, code));
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+}
@@ -1,29 +1,49 @@
 package ru.yandex.jenkins.plugins.debuilder;
 
+import hudson.EnvVars;
+import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.BuildListener;
 import hudson.model.AbstractBuild;
 import hudson.remoting.VirtualChannel;
 import hudson.tasks.Shell;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Serializable;
 import java.text.MessageFormat;
 
-import com.google.common.io.CharStreams;
+import jenkins.MasterToSlaveFileCallable;
 
 public class DebUtils {
 	public static class Runner {
+		// environment variable holding the path of the file the output of a command goes to
+		private static final String OUTPUT_VARIABLE = "DEBIAN_PACKAGE_BUILDER_OUTPUT";
+
 		private final AbstractBuild<?, ?> build;
 		private final Launcher launcher;
 		private final BuildListener listener;
 		private final String prefix;
+		private final boolean reuseSession;
+		private ShellSession session;
 
 		public Runner(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, String prefix) {
+			this(build, launcher, listener, prefix, false);
+		}
+
+		/**
+		 * @param reuseSession if the commands should be piped into a single long-lived shell on the node
+		 * instead of launching a process for each of them
+		 */
+		public Runner(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, String prefix, boolean reuseSession) {
 			this.build = build;
 			this.launcher = launcher;
 			this.listener = listener;
 			this.prefix = prefix;
+			this.reuseSession = reuseSession;
 		}
 
 		public void runCommand(String command) throws InterruptedException, DebianizingException {
@@ -41,7 +61,25 @@ public class DebUtils {
 
 		public boolean runCommandForResult(String command) throws InterruptedException, DebianizingException {
 			announce("running command <{0}>", command);
-			return new Shell(command).perform(build, launcher, listener);
+			long started = System.currentTimeMillis();
+			try {
+				if (reuseSession) {
+					return getSession(command).run(command, true, new ShellSession.LineHandler() {
+						@Override
+						public void line(String line) {
+							listener.getLogger().println(line);
+						}
+					}) == 0;
+				}
+
+				PackageMetrics.commandSpawned(BuildTimings.getPhase(command));
+				return new Shell(command).perform(build, launcher, listener);
+			} catch (IOException e) {
+				e.printStackTrace(listener.getLogger());
+				throw new DebianizingException(MessageFormat.format("Command <{0}> failed", command), e);
+			} finally {
+				BuildTimings.record(build, BuildTimings.getPhase(command), started);
+			}
 		}
 
 		public boolean runCommandForResult(String commandTemplate, Object ... arguments) throws InterruptedException, DebianizingException {
@@ -53,12 +91,124 @@ public class DebUtils {
 		}
 
 		public String runCommandForOutput(String command) throws DebianizingException {
+			return runCommandForLines(command, new OutputCollector()).getResult();
+		}
+
+		/**
+		 * Runs the command feeding its stdout line by line to the processor right on the node, stderr goes to the build log.
+		 * Only the result of the processor is sent back, so the output never crosses the channel.
+		 * In the shell session mode the processor runs on master, as the session output is read there anyway.
+		 *
+		 * @param command
+		 * @param processor
+		 * @return exit code of the command along with the result of the processor
+		 * @throws DebianizingException
+		 */
+		public <T> CommandOutput<T> runCommandForLines(final String command, final LineProcessor<T> processor) throws DebianizingException {
+			long started = System.currentTimeMillis();
 			try {
-				String actualCommand = MessageFormat.format("bash -c ''{0}''", command);
-				return CharStreams.toString(new InputStreamReader(launcher.launch().cmdAsSingleString(actualCommand).readStdout().start().getStdout()));
+				if (reuseSession) {
+					int exitCode = getSession(command).run(command, false, new ShellSession.LineHandler() {
+						private boolean more = true;
+
+						@Override
+						public void line(String line) throws IOException {
+							more = more && processor.processLine(line);
+						}
+					});
+					return new CommandOutput<T>(exitCode, processor.getResult());
+				}
+
+				PackageMetrics.commandSpawned(BuildTimings.getPhase(command));
+				return runOnNode(command, processor);
 			} catch (IOException e) {
 				e.printStackTrace(listener.getLogger());
 				throw new DebianizingException(MessageFormat.format("Command <{0}> failed", command), e);
+			} catch (InterruptedException e) {
+				// the caller can't rethrow it, so the interruption is kept for whoever checks it next
+				Thread.currentThread().interrupt();
+				throw new DebianizingException(MessageFormat.format("Command <{0}> was interrupted", command), e);
+			} finally {
+				BuildTimings.record(build, BuildTimings.getPhase(command), started);
+			}
+		}
+
+		/**
+		 * Launches the command with the launcher of the build, so that its decorators apply, with stdout going to a temporary file in the workspace.
+		 * The file is then fed to the processor right on the node, and only the result of the processor comes back.
+		 */
+		private <T> CommandOutput<T> runOnNode(String command, LineProcessor<T> processor) throws IOException, InterruptedException {
+			FilePath output = build.getWorkspace().createTempFile("output", "");
+			try {
+				EnvVars env = build.getEnvironment(listener);
+				env.put(OUTPUT_VARIABLE, output.getRemote());
+
+				int exitCode = launcher.launch().cmds("bash", "-c", "exec > \"$" + OUTPUT_VARIABLE + "\"\n" + command).envs(env).pwd(build.getWorkspace())
+						.stderr(listener.getLogger()).quiet(true).join();
+
+				return new CommandOutput<T>(exitCode, output.act(new LineReader<T>(processor)));
+			} finally {
+				try {
+					output.delete();
+				} catch (IOException e) {
+					announce("Failed to delete {0}: {1}", output.getRemote(), e.getMessage());
+				}
+			}
+		}
+
+		/**
+		 * Feeds the lines of the file to the processor, should be executed on the node holding the file
+		 */
+		private static final class LineReader<T> extends MasterToSlaveFileCallable<T> {
+			private static final long serialVersionUID = 1L;
+
+			private final LineProcessor<T> processor;
+
+			private LineReader(LineProcessor<T> processor) {
+				this.processor = processor;
+			}
+
+			@Override
+			public T invoke(File file, VirtualChannel channel) throws IOException {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null && processor.processLine(line)) {
+						// the processor is done with the output once it says so
+					}
+				} finally {
+					reader.close();
+				}
+
+				return processor.getResult();
+			}
+		}
+
+		/**
+		 * @param command the session is needed for, its phase is the one the spawn of the session is counted in
+		 */
+		private synchronized ShellSession getSession(String command) throws IOException, InterruptedException {
+			if (session == null) {
+				PackageMetrics.commandSpawned(BuildTimings.getPhase(command));
+				session = new ShellSession(launcher, build.getEnvironment(listener), build.getWorkspace(), listener.getLogger());
+			}
+
+			return session;
+		}
+
+		/**
+		 * Ends the shell session, if any
+		 */
+		public synchronized void close() {
+			if (session != null) {
+				try {
+					session.close();
+				} catch (IOException e) {
+					announce("Failed to close shell session: {0}", e.getMessage());
+				} catch (InterruptedException e) {
+					announce("Failed to close shell session: {0}", e.getMessage());
+				}
+				session = null;
 			}
 		}
 
@@ -78,4 +228,62 @@ public class DebUtils {
 			return listener;
 		}
 	}
+
+	/**
+	 * Processes command output line by line, like guava's {@link com.google.common.io.LineProcessor},
+	 * but is shipped to the node to run there
+	 */
+	public interface LineProcessor<T> extends Serializable {
+		/**
+		 * @param line
+		 * @return <b>false</b> if the rest of the output is of no interest
+		 * @throws IOException
+		 */
+		boolean processLine(String line) throws IOException;
+
+		T getResult();
+	}
+
+	/**
+	 * Exit code of a command along with the result of processing its output
+	 */
+	public static final class CommandOutput<T> implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final int exitCode;
+		private final T result;
+
+		public CommandOutput(int exitCode, T result) {
+			this.exitCode = exitCode;
+			this.result = result;
+		}
+
+		public int getExitCode() {
+			return exitCode;
+		}
+
+		public T getResult() {
+			return result;
+		}
+	}
+
+	/**
+	 * Collects the whole output
+	 */
+	private static final class OutputCollector implements LineProcessor<String> {
+		private static final long serialVersionUID = 1L;
+
+		private final StringBuilder output = new StringBuilder();
+
+		@Override
+		public boolean processLine(String line) {
+			output.append(line).append('\n');
+			return true;
+		}
+
+		@Override
+		public String getResult() {
+			return output.toString();
+		}
+	}
 }
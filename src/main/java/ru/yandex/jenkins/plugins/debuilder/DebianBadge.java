@@ -15,12 +15,18 @@ public class DebianBadge implements BuildBadgeAction {
 	private String background = "#FFDA47";
 	private String border = "1px";
 	private String borderColor = "#0066FF";
+	private int parallelJobs;
 
 	public DebianBadge(String latestVersion, String module) {
 		text = MessageFormat.format("deb {0}", latestVersion);
 		this.module = module;
 	}
 
+	public DebianBadge(String latestVersion, String module, int parallelJobs) {
+		this(latestVersion, module);
+		this.parallelJobs = parallelJobs;
+	}
+
 	@Override
 	public String getIconFileName() {
 		return "";
@@ -65,4 +71,12 @@ public class DebianBadge implements BuildBadgeAction {
 	public String getModule() {
 		return module;
 	}
+
+	/**
+	 * @return number of parallel jobs debuild ran with, 0 if unknown
+	 */
+	@Exported
+	public int getParallelJobs() {
+		return parallelJobs;
+	}
 }
@@ -0,0 +1,341 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.BuildListener;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.util.FormValidation;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jedi.functional.FunctionalPrimitives;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import ru.yandex.jenkins.plugins.debuilder.DebUtils.Runner;
+import ru.yandex.jenkins.plugins.debuilder.DebianPackageBuilder.PreparedModule;
+
+/**
+ * Builds several debian modules of a job in one step:
+ * the environment is prepared once, changelogs are generated one by one,
+ * and then <i>debuild</i>s run concurrently, each module waiting for the modules producing its build dependencies.
+ * Packages of those modules built by this very build are installed before the rest of build dependencies,
+ * on the node or in the chroot, so that the module is built against them rather than against the ones in the apt repository.
+ *
+ * @author pupssman
+ */
+public class DebianMultiPackageBuilder extends Builder {
+	private static final String PREFIX = "debian-package-builder";
+
+	// locations of debian catalogs relative to the workspace root, one per line
+	private final String pathsToDebian;
+	private final String nextVersion;
+	private final boolean generateChangelog;
+	private final boolean signPackage;
+	private final boolean buildEvenWhenThereAreNoChanges;
+	private final int parallelism;
+	private int ccacheSize;
+	private int parallelJobs;
+	private boolean reuseIdenticalSources;
+
+	@DataBoundConstructor
+	public DebianMultiPackageBuilder(String pathsToDebian, String nextVersion, Boolean generateChangelog, Boolean signPackage, Boolean buildEvenWhenThereAreNoChanges, int parallelism) {
+		this.pathsToDebian = pathsToDebian;
+		this.nextVersion = nextVersion;
+		this.generateChangelog = generateChangelog;
+		this.signPackage = signPackage;
+		this.buildEvenWhenThereAreNoChanges = buildEvenWhenThereAreNoChanges;
+		this.parallelism = parallelism;
+	}
+
+	public String getPathsToDebian() {
+		return pathsToDebian;
+	}
+
+	public String getNextVersion() {
+		return nextVersion;
+	}
+
+	public boolean isGenerateChangelog() {
+		return generateChangelog;
+	}
+
+	public boolean isSignPackage() {
+		return signPackage;
+	}
+
+	public boolean isBuildEvenWhenThereAreNoChanges() {
+		return buildEvenWhenThereAreNoChanges;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @return size of the ccache of the job per distribution in megabytes, 0 if disabled
+	 */
+	public int getCcacheSize() {
+		return ccacheSize;
+	}
+
+	@DataBoundSetter
+	public void setCcacheSize(int ccacheSize) {
+		this.ccacheSize = ccacheSize;
+	}
+
+	/**
+	 * @return number of parallel jobs for debuild of every module, 0 to derive it from the node
+	 */
+	public int getParallelJobs() {
+		return parallelJobs;
+	}
+
+	@DataBoundSetter
+	public void setParallelJobs(int parallelJobs) {
+		this.parallelJobs = parallelJobs;
+	}
+
+	/**
+	 * @return if packages built earlier from the very same sources of a module should be reused instead of building them again
+	 */
+	public boolean isReuseIdenticalSources() {
+		return reuseIdenticalSources;
+	}
+
+	@DataBoundSetter
+	public void setReuseIdenticalSources(boolean reuseIdenticalSources) {
+		this.reuseIdenticalSources = reuseIdenticalSources;
+	}
+
+	/**
+	 * @return single-module builders for every path configured
+	 */
+	public List<DebianPackageBuilder> getModuleBuilders() {
+		List<DebianPackageBuilder> result = new ArrayList<DebianPackageBuilder>();
+
+		for (String path: Util.fixNull(pathsToDebian).split("\n")) {
+			if (!path.trim().isEmpty()) {
+				DebianPackageBuilder builder = new DebianPackageBuilder(path.trim(), nextVersion, generateChangelog, signPackage, buildEvenWhenThereAreNoChanges);
+				builder.setCcacheSize(ccacheSize);
+				builder.setParallelJobs(parallelJobs);
+				builder.setReuseIdenticalSources(reuseIdenticalSources);
+				builder.setConcurrentModules(parallelism);
+				result.add(builder);
+			}
+		}
+
+		return result;
+	}
+
+	@Override
+	public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
+		PrintStream logger = listener.getLogger();
+		List<DebianPackageBuilder> builders = getModuleBuilders();
+
+		if (builders.isEmpty()) {
+			logger.println(MessageFormat.format(DebianPackageBuilder.ABORT_MESSAGE, PREFIX, "No modules to build"));
+			return false;
+		}
+
+		boolean reuseSession = builders.get(0).getDescriptor().isReuseShellSession();
+		Runner runner = new Runner(build, launcher, listener, PREFIX, reuseSession);
+
+		try {
+			builders.get(0).prepareEnvironment(build, runner);
+
+			Map<DebianPackageBuilder, PreparedModule> modules = new LinkedHashMap<DebianPackageBuilder, PreparedModule>();
+			Map<DebianPackageBuilder, PackageRelations> relations = new HashMap<DebianPackageBuilder, PackageRelations>();
+
+			for (DebianPackageBuilder builder: builders) {
+				PreparedModule module = builder.prepareModule(build, runner);
+				if (module != null) {
+					modules.put(builder, module);
+					relations.put(builder, new FilePath(runner.getChannel(), module.getRemoteDebian()).child("control").act(new PackageRelations.Reader()));
+				}
+			}
+
+			buildConcurrently(build, launcher, listener, modules, relations, reuseSession);
+		} catch (InterruptedException e) {
+			logger.println(MessageFormat.format(DebianPackageBuilder.ABORT_MESSAGE, PREFIX, e.getMessage()));
+			return false;
+		} catch (DebianizingException e) {
+			logger.println(MessageFormat.format(DebianPackageBuilder.ABORT_MESSAGE, PREFIX, e.getMessage()));
+			return false;
+		} catch (IOException e) {
+			logger.println(MessageFormat.format(DebianPackageBuilder.ABORT_MESSAGE, PREFIX, e.getMessage()));
+			return false;
+		} finally {
+			runner.close();
+		}
+
+		return true;
+	}
+
+	private void buildConcurrently(final AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, Map<DebianPackageBuilder, PreparedModule> modules,
+			Map<DebianPackageBuilder, PackageRelations> relations, boolean reuseSession) throws InterruptedException, DebianizingException {
+		final Object dependsLock = new Object();
+		List<DebianPackageBuilder> order = getBuildOrder(new ArrayList<DebianPackageBuilder>(modules.keySet()), relations);
+		Map<DebianPackageBuilder, Future<Void>> futures = new LinkedHashMap<DebianPackageBuilder, Future<Void>>();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+		try {
+			for (final DebianPackageBuilder builder: order) {
+				final PreparedModule module = modules.get(builder);
+				final Runner moduleRunner = new Runner(build, launcher, listener, PREFIX + ":" + module.getSource(), reuseSession);
+				final List<Future<Void>> dependencies = new ArrayList<Future<Void>>();
+				// dependency module -> its binaries this module build-depends on
+				final Map<PreparedModule, Set<String>> needed = new LinkedHashMap<PreparedModule, Set<String>>();
+
+				for (DebianPackageBuilder other: futures.keySet()) {
+					Set<String> binaries = relations.get(builder).getBuildDependsOn(relations.get(other));
+					if (!binaries.isEmpty()) {
+						moduleRunner.announce("Will wait for <{0}> to be built first", modules.get(other).getSource());
+						dependencies.add(futures.get(other));
+						needed.put(modules.get(other), binaries);
+					}
+				}
+
+				futures.put(builder, executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (Future<Void> dependency: dependencies) {
+							dependency.get();
+						}
+
+						try {
+							List<String> localDebs = new ArrayList<String>();
+							for (Map.Entry<PreparedModule, Set<String>> dependency: needed.entrySet()) {
+								localDebs.addAll(getBuiltDebs(moduleRunner, dependency.getKey(), dependency.getValue()));
+							}
+
+							builder.buildModule(build, moduleRunner, module, dependsLock, localDebs);
+						} finally {
+							moduleRunner.close();
+						}
+						return null;
+					}
+				}));
+			}
+
+			List<String> failed = new ArrayList<String>();
+			for (Map.Entry<DebianPackageBuilder, Future<Void>> future: futures.entrySet()) {
+				String source = modules.get(future.getKey()).getSource();
+				try {
+					future.getValue().get();
+					listener.getLogger().println(MessageFormat.format("[{0}] Module <{1}> built", PREFIX, source));
+				} catch (ExecutionException e) {
+					listener.getLogger().println(MessageFormat.format("[{0}] Module <{1}> failed: {2}", PREFIX, source, getRootMessage(e)));
+					failed.add(source);
+				}
+			}
+
+			if (!failed.isEmpty()) {
+				throw new DebianizingException(MessageFormat.format("Failed to build modules {0}", failed));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return paths on the node of the .deb files of the given binaries built for the module, found next to it where <i>debuild</i> puts them
+	 */
+	static List<String> getBuiltDebs(Runner runner, PreparedModule module, Set<String> binaries) throws IOException, InterruptedException {
+		FilePath dir = new FilePath(runner.getChannel(), module.getRemoteDebian()).child("..").child("..");
+		List<String> patterns = new ArrayList<String>();
+		for (String binary: binaries) {
+			patterns.add(ChangesFile.getNamePrefix(binary, module.getVersion()) + "*.deb");
+		}
+
+		List<String> result = new ArrayList<String>();
+		for (FilePath deb: dir.list(FunctionalPrimitives.join(patterns, ","))) {
+			result.add(deb.getRemote());
+		}
+
+		if (result.isEmpty()) {
+			runner.announce("No .deb files of {0} built for {1} {2} found in {3}", binaries, module.getSource(), module.getVersion(), dir.getRemote());
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return builders ordered so that every module goes after the modules it depends on; cyclic dependencies are ignored
+	 */
+	static List<DebianPackageBuilder> getBuildOrder(List<DebianPackageBuilder> builders, Map<DebianPackageBuilder, PackageRelations> relations) {
+		List<DebianPackageBuilder> result = new ArrayList<DebianPackageBuilder>();
+		List<DebianPackageBuilder> remaining = new ArrayList<DebianPackageBuilder>(builders);
+
+		while (!remaining.isEmpty()) {
+			DebianPackageBuilder next = remaining.get(0);
+
+			for (DebianPackageBuilder candidate: remaining) {
+				boolean ready = true;
+				for (DebianPackageBuilder other: remaining) {
+					if (other != candidate && relations.get(candidate).dependsOn(relations.get(other))) {
+						ready = false;
+						break;
+					}
+				}
+
+				if (ready) {
+					next = candidate;
+					break;
+				}
+			}
+
+			result.add(next);
+			remaining.remove(next);
+		}
+
+		return result;
+	}
+
+	private static String getRootMessage(Throwable e) {
+		Throwable cause = e;
+		while (cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+
+		return cause.getMessage();
+	}
+
+	@Extension
+	public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+		@Override
+		public String getDisplayName() {
+			return "Build several debian packages";
+		}
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+			return true;
+		}
+
+		public FormValidation doCheckParallelism(@QueryParameter String parallelism) {
+			return FormValidation.validatePositiveInteger(parallelism);
+		}
+	}
+}
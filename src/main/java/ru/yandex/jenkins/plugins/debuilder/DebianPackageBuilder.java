@@ -8,8 +8,10 @@ import hudson.Util;
 import hudson.model.BuildListener;
 import hudson.model.Environment;
 import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
 import hudson.model.Cause;
 import hudson.model.Cause.UserIdCause;
+import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.Project;
 import hudson.scm.SCM;
@@ -23,13 +25,12 @@ import java.io.PrintStream;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import jedi.functional.FunctionalPrimitives;
 import jedi.functional.Functor;
@@ -38,6 +39,7 @@ import net.sf.json.JSONObject;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import ru.yandex.jenkins.plugins.debuilder.DebUtils.Runner;
@@ -55,6 +57,11 @@ public class DebianPackageBuilder extends Builder {
 	private final boolean generateChangelog;
 	private final boolean signPackage;
 	private final boolean buildEvenWhenThereAreNoChanges;
+	private int ccacheSize;
+	private int parallelJobs;
+	private boolean reuseIdenticalSources;
+	// how many modules share the node with this one, set by the multi-module builder
+	private transient int concurrentModules;
 
 	@DataBoundConstructor
 	public DebianPackageBuilder(String pathToDebian, String nextVersion, Boolean generateChangelog, Boolean signPackage, Boolean buildEvenWhenThereAreNoChanges) {
@@ -85,83 +92,509 @@ public class DebianPackageBuilder extends Builder {
 		return buildEvenWhenThereAreNoChanges;
 	}
 
+	/**
+	 * @return size of the ccache of the job per distribution in megabytes, 0 if disabled
+	 */
+	public int getCcacheSize() {
+		return ccacheSize;
+	}
+
+	@DataBoundSetter
+	public void setCcacheSize(int ccacheSize) {
+		this.ccacheSize = ccacheSize;
+	}
+
+	/**
+	 * @return number of parallel jobs for debuild, 0 to derive it from the node
+	 */
+	public int getParallelJobs() {
+		return parallelJobs;
+	}
+
+	@DataBoundSetter
+	public void setParallelJobs(int parallelJobs) {
+		this.parallelJobs = parallelJobs;
+	}
+
+	/**
+	 * @return if packages built earlier from the very same sources should be reused instead of building them again
+	 */
+	public boolean isReuseIdenticalSources() {
+		return reuseIdenticalSources;
+	}
+
+	@DataBoundSetter
+	public void setReuseIdenticalSources(boolean reuseIdenticalSources) {
+		this.reuseIdenticalSources = reuseIdenticalSources;
+	}
+
+	void setConcurrentModules(int concurrentModules) {
+		this.concurrentModules = concurrentModules;
+	}
+
 	@Override
 	public boolean perform(@SuppressWarnings("rawtypes") AbstractBuild build, Launcher launcher, BuildListener listener) {
 		PrintStream logger = listener.getLogger();
 
-		FilePath workspace = build.getWorkspace();
 		Runner runner = makeRunner(build, launcher, listener);
 
 		try {
-			String remoteDebian = getRemoteDebian(build, runner);
+			prepareEnvironment(build, runner);
 
-			runner.runCommand("sudo apt-get -y update");
-			runner.runCommand("sudo apt-get -y install aptitude pbuilder");
+			PreparedModule module = prepareModule(build, runner);
+			if (module != null) {
+				buildModule(build, runner, module, new Object(), Collections.<String>emptyList());
+			}
+		} catch (InterruptedException e) {
+			logger.println(MessageFormat.format(ABORT_MESSAGE, PREFIX, e.getMessage()));
+			return false;
+		} catch (DebianizingException e) {
+			logger.println(MessageFormat.format(ABORT_MESSAGE, PREFIX, e.getMessage()));
+			return false;
+		} catch (IOException e) {
+			logger.println(MessageFormat.format(ABORT_MESSAGE, PREFIX, e.getMessage()));
+			return false;
+		} finally {
+			runner.close();
+		}
 
-			importKeys(workspace, runner);
+		return true;
+	}
 
-			Map<String, String> changelog = parseChangelog(runner, remoteDebian);
+	/**
+	 * Installs the tools and imports the keys needed to build any module on the node
+	 */
+	@SuppressWarnings("rawtypes")
+	void prepareEnvironment(AbstractBuild build, Runner runner) throws InterruptedException, DebianizingException, IOException {
+		List<String> tools = new ArrayList<String>(Arrays.asList("aptitude", "pbuilder"));
+		if (getDescriptor().isCleanRoom()) {
+			tools.add("cowbuilder");
+		}
+		if (ccacheSize > 0) {
+			tools.add("ccache");
+		}
 
-			String source = changelog.get("Source");
-			String latestVersion = changelog.get("Version");
-			String distribution = changelog.get("Distribution");
-			runner.announce("Determined latest version to be {0}", latestVersion);
+		AptCache aptCache = new AptCache(runner, getDescriptor().getAptCacheSize());
+		try {
+			ToolsCache.ensureInstalled(runner, build.getBuiltOnStr(), getDescriptor().getToolsCacheTtl(), aptCache, tools.toArray(new String[tools.size()]));
+		} finally {
+			aptCache.finish();
+		}
 
-			if (generateChangelog) {
-				Pair<VersionHelper, List<Change>> changes = generateChangelog(latestVersion, runner, build, remoteDebian);
+		importKeys(build.getWorkspace(), runner);
+	}
 
-				if (isTriggeredAutomatically(build) && changes.getRight().isEmpty() && !buildEvenWhenThereAreNoChanges) {
-					runner.announce("There are no creditable changes for this build - not building package.");
-					return true;
-				}
+	/**
+	 * Determines the version to build and writes down the changelog if asked to
+	 *
+	 * @return module ready to be built or <b>null</b> if there is nothing to build
+	 */
+	@SuppressWarnings("rawtypes")
+	PreparedModule prepareModule(AbstractBuild build, Runner runner) throws InterruptedException, DebianizingException, IOException {
+		String remoteDebian = getRemoteDebian(build, runner);
+
+		long started = System.currentTimeMillis();
+		ChangelogEntry changelog = parseChangelog(runner, remoteDebian);
+		BuildTimings.record(build, BuildTimings.PARSECHANGELOG, started);
+
+		String source = changelog.getSource();
+		String latestVersion = changelog.getVersion();
+		String distribution = changelog.getDistribution();
+		runner.announce("Determined latest version to be {0}", latestVersion);
+
+		// hashed before the changelog is touched, though the changelog is left out anyway
+		String sourceHash = reuseIdenticalSources ? hashSources(runner, remoteDebian) : null;
+		Pair<VersionHelper, List<Change>> changes = null;
+
+		if (generateChangelog) {
+			started = System.currentTimeMillis();
+			changes = generateChangelog(latestVersion, runner, build, remoteDebian);
+			BuildTimings.record(build, BuildTimings.CHANGELOG, started);
+
+			if (isTriggeredAutomatically(build) && changes.getRight().isEmpty() && !buildEvenWhenThereAreNoChanges) {
+				runner.announce("There are no creditable changes for this build - not building package.");
+				PackageMetrics.buildSkipped();
+				return null;
+			}
+		}
 
-				latestVersion = changes.getLeft().toString();
-				writeChangelog(build, listener, remoteDebian, runner, changes, distribution);
+		if (sourceHash != null) {
+			// a changelog not generated by the plugin may have been bumped by hand, and that version is the one to build
+			PreparedModule reused = findIdenticalBuild(build, runner, remoteDebian, distribution, sourceHash, generateChangelog ? null : latestVersion);
+			if (reused != null) {
+				return reused;
 			}
+		}
+
+		if (changes != null) {
+			started = System.currentTimeMillis();
+			latestVersion = changes.getLeft().toString();
+			writeChangelog(build, runner.getListener(), remoteDebian, runner, changes, source, distribution);
+			BuildTimings.record(build, BuildTimings.CHANGELOG, started);
+		}
+
+		return new PreparedModule(remoteDebian, source, latestVersion, distribution, sourceHash, 0);
+	}
+
+	/**
+	 * @return SHA-256 of the source tree of the module as calculated by {@link SourceTreeHasher} or <b>null</b> if it can't be calculated
+	 */
+	private String hashSources(Runner runner, String remoteDebian) throws InterruptedException {
+		FilePath debian = new FilePath(runner.getChannel(), remoteDebian);
+
+		try {
+			Set<String> binaries = debian.child("control").act(new PackageRelations.Reader()).getBinaries();
+			String hash = debian.child("..").act(new SourceTreeHasher(binaries));
+			runner.announce("Source tree hash is {0}", hash);
+			return hash;
+		} catch (IOException e) {
+			runner.announce("Failed to hash the source tree, it will be built: {0}", e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @param version version the packages should have, or <b>null</b> if any will do
+	 * @return module to be restored from an earlier build of the very same sources for the distribution
+	 *         or <b>null</b> if there is no such build, it is of another version or it has no packages archived anymore
+	 */
+	@SuppressWarnings("rawtypes")
+	private PreparedModule findIdenticalBuild(AbstractBuild build, Runner runner, String remoteDebian, String distribution, String sourceHash, String version) throws InterruptedException {
+		SourceIndex.Built built;
+		try {
+			built = SourceIndex.load(build.getProject()).get(ChangesExtractor.getModuleKey(build, remoteDebian), distribution, sourceHash);
+		} catch (IOException e) {
+			runner.announce("Failed to load source index: {0}", e.getMessage());
+			return null;
+		}
+
+		if (built == null) {
+			return null;
+		}
+
+		if (version != null && !version.equals(built.getVersion())) {
+			runner.announce("Build #{0} of the same sources is of version {1} rather than {2} from the changelog, building it again", built.getNumber(), built.getVersion(), version);
+			return null;
+		}
+
+		AbstractBuild previous = (AbstractBuild) build.getProject().getBuildByNumber(built.getNumber());
+		if (previous == null || !ArtifactArchiver.hasArtifacts(previous.getArtifactsDir(), built.getSource(), built.getVersion())) {
+			runner.announce("Build #{0} of the same sources has no {1} {2} archived anymore, building it again", built.getNumber(), built.getSource(), built.getVersion());
+			return null;
+		}
+
+		runner.announce("Sources are identical to those of {0} {1} built by #{2}, reusing its packages instead of building", built.getSource(), built.getVersion(), built.getNumber());
+		return new PreparedModule(remoteDebian, built.getSource(), built.getVersion(), distribution, sourceHash, built.getNumber());
+	}
+
+	/**
+	 * Installs build dependencies of the prepared module, builds and archives it
+	 *
+	 * @param dependsLock lock to hold while installing build dependencies, as apt can't run concurrently
+	 * @param localDebs paths on the node of .deb files built by this build the module build-depends on, installed before the rest of build dependencies
+	 */
+	@SuppressWarnings("rawtypes")
+	void buildModule(AbstractBuild build, Runner runner, PreparedModule module, Object dependsLock, List<String> localDebs) throws InterruptedException, DebianizingException, IOException {
+		if (module.getReusedBuild() > 0) {
+			restoreModule(build, runner, module);
+			return;
+		}
+
+		boolean cleanRoom = getDescriptor().isCleanRoom();
+		Ccache ccache = new Ccache(runner, ccacheSize > 0 ? Ccache.getDir(build, module.getMainDistribution()) : null, ccacheSize, cleanRoom);
+		ccache.prepare();
+
+		int jobs = getParallelJobs(build, runner);
+
+		if (ccache.isEnabled()) {
+			CcacheStats.of(build).started(module.getMainDistribution(), ccache.getStats());
+		}
+
+		try {
+			if (cleanRoom) {
+				buildInChroot(build, runner, module, ccache, jobs, localDebs);
+			} else {
+				synchronized (dependsLock) {
+					installLocalDebs(runner, localDebs);
+					satisfyBuildDepends(build, runner, module.getRemoteDebian());
+				}
 
-			runner.runCommand("cd ''{0}'' && sudo /usr/lib/pbuilder/pbuilder-satisfydepends --control control", remoteDebian);
-			String package_command = String.format("cd '%1$s' && debuild --check-dirname-level 0 --no-tgz-check ", remoteDebian);
-			if (signPackage) {
-				package_command += String.format("-k%1$s -p'gpg --no-tty --passphrase %2$s'", getDescriptor().getAccountEmail(), getDescriptor().getPassphrase());
+				buildOnHost(runner, module, ccache, jobs);
+			}
+		} finally {
+			if (ccache.isEnabled()) {
+				recordCcacheUsage(build, runner, module, ccache);
 			}
-			else
-			{
-				package_command += "-us -uc";
+		}
+
+		long started = System.currentTimeMillis();
+		archiveArtifacts(build, runner, module);
+		BuildTimings.record(build, BuildTimings.ARCHIVE, started);
+
+		if (generateChangelog) {
+			ChangesExtractor.recordPackagedVersion(build, module.getRemoteDebian(), module.getVersion());
+		}
+
+		if (module.getSourceHash() != null) {
+			try {
+				SourceIndex.record(build.getProject(), ChangesExtractor.getModuleKey(build, module.getRemoteDebian()), module.getDistribution(), module.getSourceHash(),
+						new SourceIndex.Built(build.getNumber(), module.getSource(), module.getVersion()));
+			} catch (IOException e) {
+				runner.announce("Failed to save source index: {0}", e.getMessage());
 			}
-			runner.runCommand(package_command);
+		}
+
+		publishModule(build, module, jobs);
+	}
+
+	/**
+	 * Takes the packages of the module from the earlier build of the very same sources instead of building them
+	 */
+	@SuppressWarnings("rawtypes")
+	private void restoreModule(AbstractBuild build, Runner runner, PreparedModule module) throws InterruptedException, IOException {
+		AbstractBuild previous = (AbstractBuild) build.getProject().getBuildByNumber(module.getReusedBuild());
+		if (previous == null) {
+			throw new IOException(MessageFormat.format("Build #{0} to reuse packages of is gone", module.getReusedBuild()));
+		}
+
+		long started = System.currentTimeMillis();
+		// where debuild would have put them
+		FilePath path = new FilePath(runner.getChannel(), module.getRemoteDebian()).child("..").child("..");
+		ArtifactArchiver.restore(runner, previous.getArtifactsDir(), module.getSource(), module.getVersion(), build.getArtifactsDir(), path);
+		BuildTimings.record(build, BuildTimings.ARCHIVE, started);
 
-			archiveArtifacts(build, runner, latestVersion);
+		PackageMetrics.buildReused();
+		publishModule(build, module, 0);
+	}
 
-			build.addAction(new DebianBadge(latestVersion, remoteDebian));
-			EnvVars envVars = new EnvVars(DEBIAN_SOURCE_PACKAGE, source, DEBIAN_PACKAGE_VERSION, latestVersion);
+	@SuppressWarnings("rawtypes")
+	private void publishModule(AbstractBuild build, PreparedModule module, int jobs) {
+		synchronized (build) {
+			build.addAction(new DebianBadge(module.getVersion(), module.getRemoteDebian(), jobs));
+			EnvVars envVars = new EnvVars(DEBIAN_SOURCE_PACKAGE, module.getSource(), DEBIAN_PACKAGE_VERSION, module.getVersion());
 			build.getEnvironments().add(Environment.create(envVars));
-		} catch (InterruptedException e) {
-			logger.println(MessageFormat.format(ABORT_MESSAGE, PREFIX, e.getMessage()));
-			return false;
+		}
+	}
+
+	/**
+	 * @return number of parallel jobs configured for the job,
+	 *         or cores of the node divided by its busy executors and the modules built at the same time
+	 */
+	@SuppressWarnings("rawtypes")
+	int getParallelJobs(AbstractBuild build, Runner runner) throws DebianizingException {
+		if (parallelJobs > 0) {
+			runner.announce("Building with {0} parallel jobs as configured", parallelJobs);
+			return parallelJobs;
+		}
+
+		int cores;
+		try {
+			cores = Integer.parseInt(runner.runCommandForOutput("nproc").trim());
+		} catch (NumberFormatException e) {
+			runner.announce("Failed to count cores of the node, building with a single job");
+			return 1;
+		}
+
+		Computer computer = build.getBuiltOn() == null ? null : build.getBuiltOn().toComputer();
+		int busy = computer == null ? 1 : computer.countBusy();
+		int jobs = getParallelJobs(cores, busy, concurrentModules);
+
+		runner.announce("Building with {0} parallel jobs: {1} cores, {2} busy executors, {3} concurrent modules", jobs, cores, Math.max(1, busy), Math.max(1, concurrentModules));
+		return jobs;
+	}
+
+	/**
+	 * @return cores divided by busy executors and concurrent modules, each counted as at least one, but at least a single job
+	 */
+	static int getParallelJobs(int cores, int busy, int concurrentModules) {
+		return Math.max(1, cores / Math.max(1, busy) / Math.max(1, concurrentModules));
+	}
+
+	/**
+	 * Adds up the usage of the cache once the last of the modules of the distribution being built finishes
+	 */
+	@SuppressWarnings("rawtypes")
+	private void recordCcacheUsage(AbstractBuild build, Runner runner, PreparedModule module, Ccache ccache) {
+		Ccache.Stats stats;
+		try {
+			stats = ccache.getStats();
 		} catch (DebianizingException e) {
-			logger.println(MessageFormat.format(ABORT_MESSAGE, PREFIX, e.getMessage()));
-			return false;
-		} catch (IOException e) {
-			logger.println(MessageFormat.format(ABORT_MESSAGE, PREFIX, e.getMessage()));
-			return false;
+			runner.announce("Failed to get ccache statistics: {0}", e.getMessage());
+			stats = new Ccache.Stats();
 		}
 
-		return true;
+		CcacheStats.Distribution usage = CcacheStats.of(build).finished(module.getMainDistribution(), stats);
+		if (usage != null) {
+			runner.announce("ccache of {0}: {1} hits, {2} misses", usage.getName(), usage.getHits(), usage.getMisses());
+		}
+	}
+
+	private void buildOnHost(Runner runner, PreparedModule module, Ccache ccache, int jobs) throws InterruptedException, DebianizingException {
+		String package_command = String.format("cd '%1$s' && debuild %2$s-e DEB_BUILD_OPTIONS=\"$DEB_BUILD_OPTIONS parallel=%3$d\" --check-dirname-level 0 --no-tgz-check ",
+				module.getRemoteDebian(), ccache.getDebuildOptions(), jobs);
+		if (signPackage) {
+			package_command += String.format("-k%1$s -p'gpg --no-tty --passphrase %2$s'", getDescriptor().getAccountEmail(), getDescriptor().getPassphrase());
+		}
+		else
+		{
+			package_command += "-us -uc";
+		}
+		long started = System.currentTimeMillis();
+		runner.runCommand(package_command);
+		PackageMetrics.buildPerformed(System.currentTimeMillis() - started);
+	}
+
+	/**
+	 * Builds the module in a copy-on-write clone of the pooled base chroot of its distribution,
+	 * so that build dependencies are installed there instead of the node itself
+	 */
+	@SuppressWarnings("rawtypes")
+	private void buildInChroot(AbstractBuild build, Runner runner, PreparedModule module, Ccache ccache, int jobs, List<String> localDebs) throws InterruptedException, DebianizingException, IOException {
+		String distribution = module.getMainDistribution();
+		ChrootPool.Lease lease = ChrootPool.acquire(runner, build.getBuiltOnStr(), distribution, Util.fixNull(getDescriptor().getChrootCreateOptions()));
+		AptCache aptCache = new AptCache(runner, getDescriptor().getAptCacheSize());
+		FilePath config = null;
+		FilePath hooks = null;
+
+		try {
+			String options = aptCache.getCowbuilderOptions() + MessageFormat.format("--debbuildopts -j{0} ", Integer.toString(jobs));
+			if (ccache.isEnabled()) {
+				config = build.getWorkspace().createTextTempFile("pbuilderrc", "", ccache.getPbuilderConfig());
+				options += MessageFormat.format("--configfile ''{0}'' ", config.getRemote());
+			}
+			if (!localDebs.isEmpty()) {
+				// pbuilder runs D hooks right before satisfying build dependencies in the chroot
+				hooks = build.getWorkspace().createTempDir("hooks", "");
+				FilePath hook = hooks.child("D50local-debs");
+				hook.write("#!/bin/sh\n" + getInstallLocalDebsScript("", "", localDebs), "UTF-8");
+				hook.chmod(0755);
+				options += MessageFormat.format("--hookdir ''{0}'' --bindmounts ''{1}'' ", hooks.getRemote(), getParents(runner, localDebs));
+			}
+
+			long started = System.currentTimeMillis();
+			runner.runCommand("cd ''{0}''/.. && pdebuild --pbuilder cowbuilder --use-pdebuild-internal --buildresult .. -- --basepath ''{1}'' {2}",
+					module.getRemoteDebian(), ChrootPool.getBasePath(distribution), options);
+			PackageMetrics.buildPerformed(System.currentTimeMillis() - started);
+		} finally {
+			lease.release();
+			aptCache.finish();
+			if (config != null) {
+				config.delete();
+			}
+			if (hooks != null) {
+				hooks.deleteRecursive();
+			}
+		}
+
+		if (signPackage) {
+			String changes = ChangesFile.getNamePrefix(module.getSource(), module.getVersion()) + "*.changes";
+			runner.runCommand("cd ''{0}''/.. && debsign -k{1} -p''gpg --no-tty --passphrase {2}'' ../{3}", module.getRemoteDebian(), getDescriptor().getAccountEmail(), getDescriptor().getPassphrase(), changes);
+		}
 	}
 
 	@SuppressWarnings("rawtypes") Runner makeRunner(AbstractBuild build, Launcher launcher, BuildListener listener) {
-		Runner runner = new Runner(build, launcher, listener, PREFIX);
+		Runner runner = new Runner(build, launcher, listener, PREFIX, getDescriptor().isReuseShellSession());
 		return runner;
 	}
 
+	/**
+	 * Installs .deb files built by this build for other modules on the node, along with their own dependencies
+	 */
+	private void installLocalDebs(Runner runner, List<String> localDebs) throws InterruptedException, DebianizingException {
+		if (localDebs.isEmpty()) {
+			return;
+		}
+
+		AptCache aptCache = new AptCache(runner, getDescriptor().getAptCacheSize());
+		try {
+			runner.runCommand(getInstallLocalDebsScript("sudo ", aptCache.getSudoEnv(), localDebs));
+		} finally {
+			aptCache.finish();
+		}
+	}
+
+	/**
+	 * <i>apt-get -f install</i> removes the packages whose dependencies can't be met and still succeeds,
+	 * so the script checks that every package is installed in the very version built, rather than letting the module be built against the one from the repository
+	 *
+	 * @param sudo prefix for the commands needing root, followed by a space if any
+	 * @param aptEnv environment to run apt with, followed by a space if any
+	 * @param localDebs
+	 * @return shell script installing the .deb files along with their dependencies, failing if any of them is not installed in the end
+	 */
+	static String getInstallLocalDebsScript(String sudo, String aptEnv, List<String> localDebs) {
+		String debs = quoteAll(localDebs);
+
+		return sudo + "dpkg -i " + debs + " || " + sudo + aptEnv + "apt-get -y -f install\n"
+				+ "for deb in " + debs + "; do\n"
+				+ "\tpackage=$(dpkg-deb -f \"$deb\" Package)\n"
+				+ "\tversion=$(dpkg-deb -f \"$deb\" Version)\n"
+				+ "\tif [ \"$(dpkg-query -W -f '${Status} ${Version}' \"$package\" 2>/dev/null)\" != \"install ok installed $version\" ]; then\n"
+				+ "\t\techo \"$deb could not be installed\" >&2\n"
+				+ "\t\texit 1\n"
+				+ "\tfi\n"
+				+ "done\n";
+	}
+
+	private static String quoteAll(List<String> paths) {
+		List<String> quoted = new ArrayList<String>();
+		for (String path: paths) {
+			quoted.add("'" + path + "'");
+		}
+		return FunctionalPrimitives.join(quoted, " ");
+	}
+
+	/**
+	 * @return distinct directories of the given files, separated with spaces
+	 */
+	private static String getParents(Runner runner, List<String> paths) {
+		Set<String> parents = new LinkedHashSet<String>();
+		for (String path: paths) {
+			parents.add(new FilePath(runner.getChannel(), path).getParent().getRemote());
+		}
+		return FunctionalPrimitives.join(parents, " ");
+	}
+
+	/**
+	 * Installs build dependencies declared in debian/control unless the very same set is known to be satisfied on the node already
+	 */
 	@SuppressWarnings("rawtypes")
-	private void archiveArtifacts(AbstractBuild build, Runner runner, String latestVersion) throws IOException, InterruptedException {
-		FilePath path = build.getWorkspace().child(pathToDebian).child("..");
-		String mask = "*" + latestVersion + "*.deb";
-		for (FilePath file:path.list(mask)) {
-			runner.announce("Archiving file <{0}> as a build artifact", file.getName());
+	private void satisfyBuildDepends(AbstractBuild build, Runner runner, String remoteDebian) throws InterruptedException, DebianizingException {
+		String node = build.getBuiltOnStr();
+		String digest = null;
+
+		try {
+			digest = new FilePath(runner.getChannel(), remoteDebian).child("control").act(new BuildDependsHasher());
+		} catch (IOException e) {
+			runner.announce("Failed to read build dependencies from debian/control: {0}", e.getMessage());
+		}
+
+		if (digest != null) {
+			Long saved = BuildDependsCache.getSatisfyingTime(runner, node, digest, getDescriptor().getToolsCacheTtl(), remoteDebian);
+			if (saved != null) {
+				runner.announce("Build dependencies <{0}> are already satisfied on <{1}>, skipping pbuilder-satisfydepends (saved about {2})", digest, node, Util.getTimeSpanString(saved));
+				return;
+			}
+		}
+
+		long started = System.currentTimeMillis();
+		AptCache aptCache = new AptCache(runner, getDescriptor().getAptCacheSize());
+		try {
+			runner.runCommand("cd ''{0}'' && sudo {1}/usr/lib/pbuilder/pbuilder-satisfydepends --control control", remoteDebian, aptCache.getSudoEnv());
+		} finally {
+			aptCache.finish();
+		}
+
+		if (digest != null) {
+			BuildDependsCache.recordSatisfied(node, digest, System.currentTimeMillis() - started, ToolsCache.getStatusModified(runner));
 		}
-		path.copyRecursiveTo(mask, new FilePath(build.getArtifactsDir()));
+	}
+
+	@SuppressWarnings("rawtypes")
+	private void archiveArtifacts(AbstractBuild build, Runner runner, PreparedModule module) throws IOException, InterruptedException {
+		// debuild puts packages next to the source directory
+		FilePath path = new FilePath(runner.getChannel(), module.getRemoteDebian()).child("..").child("..");
+		ArtifactArchiver.archive(runner, path, module.getSource(), module.getVersion(), build.getArtifactsDir());
 	}
 
 
@@ -218,30 +651,34 @@ public class DebianPackageBuilder extends Builder {
 	}
 
 	/**
-	 * Writes down changelog contained in <b>changes</b>
+	 * Writes down changelog contained in <b>changes</b> as a new version stanza
 	 *
 	 * @param build
 	 * @param listener
 	 * @param remoteDebian
 	 * @param runner
 	 * @param changes
-	 * @param previousChangelog
+	 * @param source
+	 * @param distribution
 	 * @throws IOException
 	 * @throws InterruptedException
 	 * @throws DebianizingException
 	 */
 	@SuppressWarnings("rawtypes")
-	private void writeChangelog(AbstractBuild build, BuildListener listener, String remoteDebian, Runner runner, Pair<VersionHelper, List<Change>> changes, String distribution) throws IOException,
+	void writeChangelog(AbstractBuild build, BuildListener listener, String remoteDebian, Runner runner, Pair<VersionHelper, List<Change>> changes, String source, String distribution) throws IOException,
 			InterruptedException, DebianizingException {
 
 		String versionMessage = getCausedMessage(build);
 
 		String newVersionMessage = Util.replaceMacro(versionMessage, new VariableResolver.ByMap<String>(build.getEnvironment(listener)));
-		startVersion(runner, remoteDebian, changes.getLeft(), newVersionMessage, distribution);
+		runner.announce("Starting version <{0}> with message <{1}>", changes.getLeft(), newVersionMessage);
 
 		for (Change change: changes.getRight()) {
-			addChange(runner, remoteDebian, change, distribution);
+			runner.announce("Got changeset entry: {0} by {1}", change.getMessage(), change.getAuthor());
 		}
+
+		ChangelogWriter writer = new ChangelogWriter(source, changes.getLeft().toString(), distribution, getDescriptor().getAccountName(), getDescriptor().getAccountEmail(), newVersionMessage, changes.getRight());
+		new FilePath(build.getWorkspace().getChannel(), remoteDebian).child("changelog").act(writer);
 	}
 
 	@SuppressWarnings("rawtypes")
@@ -281,36 +718,17 @@ public class DebianPackageBuilder extends Builder {
 
 	}
 
-	private String clearMessage(String message) {
-		return message.replaceAll("\\'", "");
-	}
-
-	private void addChange(Runner runner, String remoteDebian, Change change, String distribution) throws InterruptedException, DebianizingException {
-		runner.announce("Got changeset entry: {0} by {1}", clearMessage(change.getMessage()), change.getAuthor());
-		runner.runCommand("export DEBEMAIL={0} && export DEBFULLNAME=''{1}'' && cd ''{2}'' && dch --check-dirname-level 0 --distribution ''{4}'' --append -- ''{3}''", getDescriptor().getAccountEmail(), change.getAuthor(), remoteDebian, clearMessage(change.getMessage()), distribution);
-	}
-
-	private void startVersion(Runner runner, String remoteDebian, VersionHelper helper, String message, String distribution) throws InterruptedException, DebianizingException {
-		runner.announce("Starting version <{0}> with message <{1}>", helper, clearMessage(message));
-		runner.runCommand("export DEBEMAIL={0} && export DEBFULLNAME=''{1}'' && cd ''{2}'' && dch --check-dirname-level 0 -b --distribution ''{5}'' --newVersion {3} -- ''{4}''", getDescriptor().getAccountEmail(), getDescriptor().getAccountName(), remoteDebian, helper, clearMessage(message), distribution);
-	}
-
 	/**
-	 * FIXME Doesn't work with multi-line entries
+	 * Reads the latest stanza of debian/changelog right on the node
 	 */
-	Map<String, String> parseChangelog(Runner runner, String remoteDebian) throws DebianizingException {
-		String changelogOutput = runner.runCommandForOutput("cd \"{0}\" && dpkg-parsechangelog -lchangelog", remoteDebian);
-		Map<String, String> changelog = new HashMap<String, String>();
-		Pattern changelogFormat = Pattern.compile("(\\w+):\\s*(.*)");
-
-		for(String row: changelogOutput.split("\n")) {
-			Matcher matcher = changelogFormat.matcher(row.trim());
-			if (matcher.matches()) {
-				 changelog.put(matcher.group(1), matcher.group(2));
-			}
-		}
+	ChangelogEntry parseChangelog(Runner runner, String remoteDebian) throws DebianizingException, InterruptedException {
+		FilePath changelog = new FilePath(runner.getChannel(), remoteDebian).child("changelog");
 
-		return changelog;
+		try {
+			return changelog.act(new ChangelogParser());
+		} catch (IOException e) {
+			throw new DebianizingException(MessageFormat.format("Failed to parse {0}: {1}", changelog.getRemote(), e.getMessage()), e);
+		}
 	}
 
 	private void importKeys(FilePath workspace, Runner runner)
@@ -335,12 +753,20 @@ public class DebianPackageBuilder extends Builder {
 
 	@Extension
 	public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+		public static final int DEFAULT_TOOLS_CACHE_TTL = 60;
+		public static final int DEFAULT_CHROOT_REFRESH_INTERVAL = 24;
 
 		private String publicKey;
 		private String privateKey;
 		private String accountName;
 		private String accountEmail;
 		private String passphrase;
+		private int toolsCacheTtl = DEFAULT_TOOLS_CACHE_TTL;
+		private boolean reuseShellSession;
+		private boolean cleanRoom;
+		private String chrootCreateOptions;
+		private int chrootRefreshInterval = DEFAULT_CHROOT_REFRESH_INTERVAL;
+		private int aptCacheSize;
 
 		public DescriptorImpl() {
 			load();
@@ -367,6 +793,12 @@ public class DebianPackageBuilder extends Builder {
 			setAccountName("Jenkins");
 			setAccountEmail(json.getString("accountEmail"));
 			setPassphrase(json.getString("passphrase"));
+			setToolsCacheTtl(json.optInt("toolsCacheTtl", DEFAULT_TOOLS_CACHE_TTL));
+			setReuseShellSession(json.optBoolean("reuseShellSession"));
+			setCleanRoom(json.optBoolean("cleanRoom"));
+			setChrootCreateOptions(json.optString("chrootCreateOptions"));
+			setChrootRefreshInterval(json.optInt("chrootRefreshInterval", DEFAULT_CHROOT_REFRESH_INTERVAL));
+			setAptCacheSize(json.optInt("aptCacheSize", 0));
 
 			save();
 			return true; // indicate that everything is good so far
@@ -408,6 +840,69 @@ public class DebianPackageBuilder extends Builder {
 			this.passphrase = passphrase;
 		}
 
+		/**
+		 * @return for how many minutes installed tools and satisfied build dependencies known for a node are trusted without re-checking
+		 */
+		public int getToolsCacheTtl() {
+			return toolsCacheTtl;
+		}
+
+		public void setToolsCacheTtl(int toolsCacheTtl) {
+			this.toolsCacheTtl = toolsCacheTtl;
+		}
+
+		/**
+		 * @return if commands of a build step should be piped into a single shell session on the node
+		 */
+		public boolean isReuseShellSession() {
+			return reuseShellSession;
+		}
+
+		public void setReuseShellSession(boolean reuseShellSession) {
+			this.reuseShellSession = reuseShellSession;
+		}
+
+		/**
+		 * @return if packages should be built in pooled <i>cowbuilder</i> chroots instead of the node itself
+		 */
+		public boolean isCleanRoom() {
+			return cleanRoom;
+		}
+
+		public void setCleanRoom(boolean cleanRoom) {
+			this.cleanRoom = cleanRoom;
+		}
+
+		public String getChrootCreateOptions() {
+			return chrootCreateOptions;
+		}
+
+		public void setChrootCreateOptions(String chrootCreateOptions) {
+			this.chrootCreateOptions = chrootCreateOptions;
+		}
+
+		/**
+		 * @return how many hours a base chroot is used before being refreshed in background
+		 */
+		public int getChrootRefreshInterval() {
+			return chrootRefreshInterval;
+		}
+
+		public void setChrootRefreshInterval(int chrootRefreshInterval) {
+			this.chrootRefreshInterval = chrootRefreshInterval;
+		}
+
+		/**
+		 * @return size of the node-level apt archive cache in megabytes, 0 if disabled
+		 */
+		public int getAptCacheSize() {
+			return aptCacheSize;
+		}
+
+		public void setAptCacheSize(int aptCacheSize) {
+			this.aptCacheSize = aptCacheSize;
+		}
+
 	}
 
 
@@ -431,15 +926,25 @@ public class DebianPackageBuilder extends Builder {
 	 * @param build
 	 * @return all the {@link DebianPackageBuilder}s participating in this build
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public static Collection<DebianPackageBuilder> getDPBuilders(AbstractBuild<?, ?> build) {
+		return getDPBuilders(build.getProject());
+	}
+
+	/**
+	 * @param project
+	 * @return all the {@link DebianPackageBuilder}s configured in the project, including the modules of {@link DebianMultiPackageBuilder}s
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static Collection<DebianPackageBuilder> getDPBuilders(AbstractProject<?, ?> project) {
 		ArrayList<DebianPackageBuilder> result = new ArrayList<DebianPackageBuilder>();
 
-		if (build.getProject() instanceof Project) {
-			DescribableList<Builder, Descriptor<Builder>> builders = ((Project)build.getProject()).getBuildersList();
+		if (project instanceof Project) {
+			DescribableList<Builder, Descriptor<Builder>> builders = ((Project)project).getBuildersList();
 			for (Builder builder: builders) {
 				if (builder instanceof DebianPackageBuilder) {
 					result.add((DebianPackageBuilder) builder);
+				} else if (builder instanceof DebianMultiPackageBuilder) {
+					result.addAll(((DebianMultiPackageBuilder) builder).getModuleBuilders());
 				}
 			}
 		}
@@ -447,4 +952,60 @@ public class DebianPackageBuilder extends Builder {
 		return result;
 	}
 
+	/**
+	 * Module with the changelog prepared, ready to be built
+	 */
+	static final class PreparedModule {
+		private final String remoteDebian;
+		private final String source;
+		private final String version;
+
+		private final String distribution;
+		private final String sourceHash;
+		private final int reusedBuild;
+
+		/**
+		 * @param sourceHash hash of the source tree or <b>null</b> if it is not tracked
+		 * @param reusedBuild number of the build to take the packages from instead of building, 0 to build them
+		 */
+		PreparedModule(String remoteDebian, String source, String version, String distribution, String sourceHash, int reusedBuild) {
+			this.remoteDebian = remoteDebian;
+			this.source = source;
+			this.version = version;
+			this.distribution = distribution;
+			this.sourceHash = sourceHash;
+			this.reusedBuild = reusedBuild;
+		}
+
+		public String getRemoteDebian() {
+			return remoteDebian;
+		}
+
+		public String getSource() {
+			return source;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		public String getDistribution() {
+			return distribution;
+		}
+
+		public String getSourceHash() {
+			return sourceHash;
+		}
+
+		public int getReusedBuild() {
+			return reusedBuild;
+		}
+
+		/**
+		 * @return the first of the distributions listed in the changelog, which is the one to build for
+		 */
+		public String getMainDistribution() {
+			return distribution.trim().split("\\s+")[0];
+		}
+	}
 }
@@ -4,6 +4,7 @@ import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.BuildBadgeAction;
 import hudson.model.BuildListener;
 import hudson.model.Result;
@@ -28,16 +29,20 @@ import java.io.PrintStream;
 import java.io.Serializable;
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nonnull;
 
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 
-import org.apache.commons.lang3.text.StrSubstitutor;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
@@ -53,15 +58,21 @@ public class DebianPackagePublisher extends Recorder implements Serializable {
 	private static final long serialVersionUID = 1L;
 	private static final String PREFIX = "debian-package-publisher";
 
+	private static final long RETRY_BACKOFF = 5000;
+
 	private String repoId;
 	private String commitMessage;
 	private final boolean commitChanges;
+	private final int uploadParallelism;
+	private final int uploadRetries;
 
 	@DataBoundConstructor
-	public DebianPackagePublisher(String repoId, String commitMessage, boolean commitChanges) {
+	public DebianPackagePublisher(String repoId, String commitMessage, boolean commitChanges, int uploadParallelism, int uploadRetries) {
 		this.commitChanges = commitChanges;
 		this.commitMessage = commitMessage;
 		this.repoId = repoId;
+		this.uploadParallelism = uploadParallelism;
+		this.uploadRetries = uploadRetries;
 	}
 
 	private DebianPackageRepo getRepo(AbstractBuild<?, ?> build, Runner runner) throws IOException, InterruptedException {
@@ -88,54 +99,6 @@ public class DebianPackagePublisher extends Recorder implements Serializable {
 		return "";
 	}
 
-	private FilePath getRemoteKeyPath(AbstractBuild<?, ?> build, Runner runner) throws IOException, InterruptedException {
-		String keysDir = "debian-package-builder-keys";
-
-		String relativeKeyPath = new File(keysDir, getRepo(build, runner).getKeypath()).getPath();
-		File absoluteKeyPath = new File (Jenkins.getInstance().getRootDir(), relativeKeyPath);
-		FilePath localKey = new FilePath(absoluteKeyPath);
-
-		FilePath remoteKey = build.getWorkspace().createTextTempFile("private", "key", localKey.readToString());
-		remoteKey.chmod(0600);
-		return remoteKey;
-	}
-
-	private FilePath[] generateDuploadConf(AbstractBuild<?, ?> build, Runner runner) throws IOException, InterruptedException, DebianizingException {
-		String confTemplate =
-				"package config;\n\n" +
-				"$default_host = '${name}';\n\n" +
-				"$cfg{'${name}'} = {\n" +
-				"\tlogin => '${login}',\n" +
-				"\tfqdn => '${fqdn}',\n" +
-				"\tmethod => '${method}',\n" +
-				"\tincoming => '${incoming}',\n" +
-				"\tdinstall_runs => 0,\n" +
-				"\toptions => '${options}',\n" +
-				"};\n\n" +
-				"1;\n";
-
-		Map<String, String> values = new HashMap<String, String>();
-
-		DebianPackageRepo repo = getRepo(build, runner);
-		FilePath keyPath = getRemoteKeyPath(build, runner);
-
-		values.put("name", repo.getName());
-		values.put("method", repo.getMethod());
-		values.put("fqdn", repo.getFqdn());
-		values.put("incoming", repo.getIncoming());
-		values.put("login", repo.getLogin());
-		values.put("options", MessageFormat.format("-i {0} ", keyPath.getRemote()) + repo.getOptions());
-
-		StrSubstitutor substitutor = new StrSubstitutor(values);
-		String conf = substitutor.replace(confTemplate);
-
-		FilePath duploadConf = build.getWorkspace().createTempFile("dupload", "conf");
-		duploadConf.touch(System.currentTimeMillis()/1000);
-		duploadConf.write(conf, "UTF-8");
-
-		return new FilePath[] { duploadConf, keyPath };
-	}
-
 	@Override
 	public DescriptorImpl getDescriptor() {
 		return (DescriptorImpl) super.getDescriptor();
@@ -150,13 +113,27 @@ public class DebianPackagePublisher extends Recorder implements Serializable {
 			return true;
 		}
 
-		Runner runner = new DebUtils.Runner(build, launcher, listener, PREFIX);
+		DebianPackageBuilder.DescriptorImpl builderDescriptor = (DebianPackageBuilder.DescriptorImpl) Jenkins.getInstance().getDescriptor(DebianPackageBuilder.class);
+		Runner runner = new DebUtils.Runner(build, launcher, listener, PREFIX, builderDescriptor.isReuseShellSession());
 
-		FilePath[] tempFiles = null;
+		UploadEngine engine = null;
 		try {
-			runner.runCommand("sudo apt-get -y install dupload devscripts");
-			tempFiles = generateDuploadConf(build, runner);
-			String duploadConf = tempFiles[0].getRemote();
+			engine = UploadEngine.forRepo(getRepo(build, runner));
+
+			if (engine.getRequiredPackages().length > 0) {
+				AptCache aptCache = new AptCache(runner, builderDescriptor.getAptCacheSize());
+				try {
+					ToolsCache.ensureInstalled(runner, build.getBuiltOnStr(), builderDescriptor.getToolsCacheTtl(), aptCache, engine.getRequiredPackages());
+				} finally {
+					aptCache.finish();
+				}
+			}
+
+			if (Boolean.parseBoolean(build.getEnvironment(listener).get(UploadEngine.FORCE_UPLOAD))) {
+				runner.announce("Upload is forced with {0}, files uploaded before are sent again", UploadEngine.FORCE_UPLOAD);
+				engine.setForce(true);
+			}
+			engine.prepare(build, runner);
 
 			List<String> builtModules = new ArrayList<String>();
 
@@ -166,7 +143,7 @@ public class DebianPackagePublisher extends Recorder implements Serializable {
 				}
 			}
 
-			boolean wereBuilds = false;
+			List<String> modules = new ArrayList<String>();
 
 			for (String module: DebianPackageBuilder.getRemoteModules(build, runner)) {
 				if (! builtModules.contains(new FilePath(build.getWorkspace().getChannel(), module).child("debian").getRemote())) {
@@ -174,13 +151,13 @@ public class DebianPackagePublisher extends Recorder implements Serializable {
 					continue;
 				}
 
-				if (!runner.runCommandForResult("cd ''{0}'' && cp ''{1}'' dupload.conf && trap ''rm -f dupload.conf'' EXIT && debrelease -c", module, duploadConf)) {
-					throw new DebianizingException("Debrelease failed");
-				}
-
-				wereBuilds = true;
+				modules.add(module);
 			}
 
+			releaseModules(build, launcher, listener, modules, engine);
+
+			boolean wereBuilds = !modules.isEmpty();
+
 			if (wereBuilds && commitChanges) {
 				String expandedCommitMessage = getExpandedCommitMessage(build, listener);
 				commitChanges(build, runner, expandedCommitMessage);
@@ -192,18 +169,95 @@ public class DebianPackagePublisher extends Recorder implements Serializable {
 			logger.println(MessageFormat.format(DebianPackageBuilder.ABORT_MESSAGE, PREFIX, e.getMessage()));
 			build.setResult(Result.UNSTABLE);
 		} finally {
-			if (tempFiles != null) {
-				for (FilePath tempFile : tempFiles) {
-					try {
-						tempFile.delete();
-					} catch (InterruptedException e) {
-						logger.println(MessageFormat.format("[{0}] Error deleting {1}: {2}", PREFIX, tempFile.getRemote(), e.getMessage()));
+			if (engine != null) {
+				engine.cleanup(runner);
+			}
+			runner.close();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Releases given modules, up to {@link #getUploadParallelism()} at once, retrying failed uploads with exponential backoff
+	 */
+	private void releaseModules(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, List<String> modules, final UploadEngine engine) throws InterruptedException, DebianizingException {
+		PrintStream logger = listener.getLogger();
+		long started = System.currentTimeMillis();
+		Map<String, Future<Long>> uploads = new LinkedHashMap<String, Future<Long>>();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, uploadParallelism));
+		try {
+			for (final String module: modules) {
+				final Runner moduleRunner = new DebUtils.Runner(build, launcher, listener, PREFIX + ":" + getModuleName(module));
+
+				uploads.put(module, executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws Exception {
+						return release(moduleRunner, module, engine);
 					}
+				}));
+			}
+
+			long total = 0;
+			List<String> failed = new ArrayList<String>();
+
+			for (Map.Entry<String, Future<Long>> upload: uploads.entrySet()) {
+				try {
+					long duration = upload.getValue().get();
+					total += duration;
+					logger.println(MessageFormat.format("[{0}] Module in {1} released in {2}", PREFIX, upload.getKey(), Util.getTimeSpanString(duration)));
+				} catch (ExecutionException e) {
+					logger.println(MessageFormat.format("[{0}] Module in {1} failed to release: {2}", PREFIX, upload.getKey(), e.getCause().getMessage()));
+					failed.add(upload.getKey());
 				}
 			}
+
+			logger.println(MessageFormat.format("[{0}] Released {1} of {2} modules in {3} (sum of upload times {4})", PREFIX,
+					uploads.size() - failed.size(), uploads.size(), Util.getTimeSpanString(System.currentTimeMillis() - started), Util.getTimeSpanString(total)));
+
+			if (!failed.isEmpty()) {
+				throw new DebianizingException("Upload failed for " + failed);
+			}
+		} finally {
+			executor.shutdownNow();
 		}
+	}
 
-		return true;
+	/**
+	 * @return name of the module directory, as in <i>foo</i> for <i>/workspace/foo/debian/..</i>
+	 */
+	private static String getModuleName(String module) {
+		File file = new File(module);
+		if ("..".equals(file.getName()) && file.getParentFile() != null && file.getParentFile().getParentFile() != null) {
+			file = file.getParentFile().getParentFile();
+		}
+
+		return file.getName();
+	}
+
+	/**
+	 * @return time spent releasing the module
+	 */
+	private long release(Runner runner, String module, UploadEngine engine) throws InterruptedException, DebianizingException {
+		long started = System.currentTimeMillis();
+
+		for (int attempt = 0; ; attempt++) {
+			try {
+				long bytes = engine.upload(runner, module);
+				long duration = System.currentTimeMillis() - started;
+				PackageMetrics.uploaded(engine.getRepo().getName(), bytes, duration);
+				return duration;
+			} catch (IOException e) {
+				if (attempt >= uploadRetries) {
+					throw new DebianizingException(MessageFormat.format("Upload failed after {0} attempts: {1}", attempt + 1, e.getMessage()), e);
+				}
+
+				long backoff = RETRY_BACKOFF << attempt;
+				runner.announce("Upload failed: {0}, retrying in {1}", e.getMessage(), Util.getTimeSpanString(backoff));
+				Thread.sleep(backoff);
+			}
+		}
 	}
 
 	private String getExpandedCommitMessage(AbstractBuild<?, ?> build, BuildListener listener) throws IOException, InterruptedException {
@@ -311,7 +365,7 @@ public class DebianPackagePublisher extends Recorder implements Serializable {
 		}
 
 		public FormValidation doCheckMethod(@QueryParameter String method) {
-			if (method != "scpb") {
+			if (!UploadEngine.isSupported(method)) {
 				return FormValidation.error("This method is not supported yet");
 			} else {
 				return FormValidation.ok();
@@ -349,4 +403,12 @@ public class DebianPackagePublisher extends Recorder implements Serializable {
 	public String getRepoId() {
 		return repoId;
 	}
+
+	public int getUploadParallelism() {
+		return uploadParallelism;
+	}
+
+	public int getUploadRetries() {
+		return uploadRetries;
+	}
 }
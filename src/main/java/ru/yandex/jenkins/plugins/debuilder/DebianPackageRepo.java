@@ -1,6 +1,7 @@
 package ru.yandex.jenkins.plugins.debuilder;
 
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 public final class DebianPackageRepo {
 
@@ -11,6 +12,7 @@ public final class DebianPackageRepo {
 	private String login;
 	private String options;
 	private String keypath;
+	private String hostKey;
 
 	@DataBoundConstructor
 	public DebianPackageRepo(String name, String method, String fqdn, String incoming, String login, String options, String keypath) {
@@ -79,4 +81,16 @@ public final class DebianPackageRepo {
 		this.keypath = keypath;
 	}
 
+	/**
+	 * @return public key of the host as in <i>known_hosts</i>, like <i>ssh-rsa AAAA...</i>, or <b>null</b> to rely on <i>known_hosts</i> of the node
+	 */
+	public String getHostKey() {
+		return hostKey;
+	}
+
+	@DataBoundSetter
+	public void setHostKey(String hostKey) {
+		this.hostKey = hostKey;
+	}
+
 }
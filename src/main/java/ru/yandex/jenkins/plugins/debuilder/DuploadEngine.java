@@ -0,0 +1,127 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.text.StrSubstitutor;
+
+import ru.yandex.jenkins.plugins.debuilder.DebUtils.Runner;
+
+/**
+ * Uploads modules with <i>debrelease</i>, which in turn uses <i>dupload</i> configured for the repo
+ *
+ * @author pupssman
+ */
+public class DuploadEngine extends UploadEngine {
+	private static final String CONF_TEMPLATE =
+			"package config;\n\n" +
+			"$default_host = '${name}';\n\n" +
+			"$cfg{'${name}'} = {\n" +
+			"\tlogin => '${login}',\n" +
+			"\tfqdn => '${fqdn}',\n" +
+			"\tmethod => '${method}',\n" +
+			"\tincoming => '${incoming}',\n" +
+			"\tdinstall_runs => 0,\n" +
+			"\toptions => '${options}',\n" +
+			"};\n\n" +
+			"1;\n";
+
+	private FilePath duploadConf;
+	private FilePath keyPath;
+
+	public DuploadEngine(DebianPackageRepo repo) throws DebianizingException {
+		super(repo);
+	}
+
+	@Override
+	public String[] getRequiredPackages() {
+		return new String[] {"dupload", "devscripts"};
+	}
+
+	@Override
+	public void prepare(AbstractBuild<?, ?> build, Runner runner) throws IOException, InterruptedException, DebianizingException {
+		keyPath = build.getWorkspace().createTextTempFile("private", "key", readKey());
+		keyPath.chmod(0600);
+
+		String conf = getConf(repo, keyPath.getRemote());
+
+		duploadConf = build.getWorkspace().createTempFile("dupload", "conf");
+		duploadConf.touch(System.currentTimeMillis()/1000);
+		duploadConf.write(conf, "UTF-8");
+	}
+
+	/**
+	 * @param repo
+	 * @param keyPath path to the private key on the node
+	 * @return contents of <i>dupload.conf</i> for the repo
+	 */
+	static String getConf(DebianPackageRepo repo, String keyPath) {
+		Map<String, String> values = new HashMap<String, String>();
+
+		values.put("name", repo.getName());
+		values.put("method", repo.getMethod());
+		values.put("fqdn", repo.getFqdn());
+		values.put("incoming", repo.getIncoming());
+		values.put("login", repo.getLogin());
+		values.put("options", MessageFormat.format("-i {0} ", keyPath) + repo.getOptions());
+
+		return new StrSubstitutor(values).replace(CONF_TEMPLATE);
+	}
+
+	@Override
+	public long upload(Runner runner, String module) throws IOException, InterruptedException, DebianizingException {
+		List<ChangesFile> changes = new ArrayList<ChangesFile>();
+		boolean uploaded = true;
+
+		for (FilePath file: findChanges(runner, module)) {
+			ChangesFile parsed = file.act(new ChangesFile.Reader());
+			uploaded &= isUploaded(parsed);
+			changes.add(parsed);
+		}
+
+		// debrelease uploads whole .changes, so the module is skipped only if every file is already there
+		if (uploaded) {
+			runner.announce("All the files of {0} are already in {1}, skipping debrelease", module, repo.getName());
+			return 0;
+		}
+
+		if (!runner.runCommandForResult("cd ''{0}'' && cp ''{1}'' dupload.conf && trap ''rm -f dupload.conf'' EXIT && debrelease -c", module, duploadConf.getRemote())) {
+			throw new IOException("Debrelease failed");
+		}
+
+		long bytes = 0;
+		for (ChangesFile parsed: changes) {
+			manifest.record(parsed);
+
+			for (ChangesFile.Entry entry: parsed.getEntries()) {
+				bytes += entry.getSize();
+			}
+		}
+
+		return bytes;
+	}
+
+	@Override
+	public void cleanup(Runner runner) {
+		for (FilePath tempFile: new FilePath[] {duploadConf, keyPath}) {
+			if (tempFile == null) {
+				continue;
+			}
+
+			try {
+				tempFile.delete();
+			} catch (IOException e) {
+				runner.announce("Error deleting {0}: {1}", tempFile.getRemote(), e.getMessage());
+			} catch (InterruptedException e) {
+				runner.announce("Error deleting {0}: {1}", tempFile.getRemote(), e.getMessage());
+			}
+		}
+	}
+}
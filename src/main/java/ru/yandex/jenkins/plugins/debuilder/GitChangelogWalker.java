@@ -0,0 +1,219 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import jenkins.MasterToSlaveFileCallable;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+import ru.yandex.jenkins.plugins.debuilder.ChangesExtractor.Change;
+
+/**
+ * Walks git history from HEAD down to the last debian/changelog modification made by the plugin account
+ * and collects all the commits made since then.
+ *
+ * First walk is path-filtered and only visits commits touching the changelog, the second one
+ * collects commits between HEAD and the found boundary. Both run in-process next to the repository,
+ * so no <i>git show</i> is forked per commit.
+ *
+ * If changes are already known for some ancestor of HEAD and changelog was not touched since then,
+ * only the commits after that ancestor are walked and appended to the known ones.
+ *
+ * Can be run with {@link OnNode} right on the node holding the clone, without creating a git client on master.
+ *
+ * @author pupssman
+ */
+public class GitChangelogWalker implements RepositoryCallback<List<Change>> {
+	private static final long serialVersionUID = 1L;
+
+	private final String changelog;
+	private final String accountName;
+	private final String accountEmail;
+	private final String knownHead;
+	private final ArrayList<Change> knownChanges;
+
+	/**
+	 * @param remoteDebian absolute path to the 'debian' catalog on the node holding the repository
+	 * @param account identity used by the plugin to commit changelog updates
+	 * @param knownHead revision the <b>knownChanges</b> were calculated for or <b>null</b> if none
+	 * @param knownChanges
+	 */
+	public GitChangelogWalker(String remoteDebian, PersonIdent account, String knownHead, List<Change> knownChanges) {
+		this.changelog = new File(remoteDebian, "changelog").getPath();
+		this.accountName = account.getName();
+		this.accountEmail = account.getEmailAddress();
+		this.knownHead = knownHead;
+		this.knownChanges = new ArrayList<Change>(knownChanges);
+	}
+
+	@Override
+	public List<Change> invoke(Repository repo, VirtualChannel channel) throws IOException, InterruptedException {
+		List<Change> result = new ArrayList<Change>();
+
+		ObjectId head = repo.resolve(Constants.HEAD);
+		if (head == null) {
+			return result;
+		}
+
+		String path = getRepositoryPath(repo);
+		ObjectId known = getKnownAncestor(repo, head, path);
+
+		if (known != null) {
+			result.addAll(knownChanges);
+			result.addAll(collectChanges(repo, head, known));
+		} else {
+			result.addAll(collectChanges(repo, head, findBoundary(repo, head, path)));
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return commits reachable from <b>head</b> but not from <b>boundary</b>, oldest first
+	 */
+	private List<Change> collectChanges(Repository repo, ObjectId head, ObjectId boundary) throws IOException {
+		LinkedList<Change> result = new LinkedList<Change>();
+
+		RevWalk walk = new RevWalk(repo);
+		try {
+			walk.markStart(walk.parseCommit(head));
+			if (boundary != null) {
+				walk.markUninteresting(walk.parseCommit(boundary));
+			}
+
+			for (RevCommit commit: walk) {
+				result.addFirst(new Change(commit.getAuthorIdent().getName(), commit.getShortMessage()));
+			}
+		} finally {
+			walk.release();
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return known head if it is an ancestor of <b>head</b> and changelog was not modified since, <b>null</b> otherwise
+	 */
+	private ObjectId getKnownAncestor(Repository repo, ObjectId head, String path) throws IOException {
+		if (knownHead == null || !ObjectId.isId(knownHead)) {
+			return null;
+		}
+
+		ObjectId known = ObjectId.fromString(knownHead);
+		if (!repo.hasObject(known)) {
+			return null;
+		}
+
+		// only parents are needed to check ancestry and modifications, not messages
+		RevWalk walk = new RevWalk(repo);
+		walk.setRetainBody(false);
+		try {
+			RevCommit knownCommit = walk.parseCommit(known);
+			if (!walk.isMergedInto(knownCommit, walk.parseCommit(head))) {
+				return null;
+			}
+		} finally {
+			walk.release();
+		}
+
+		RevWalk changelogWalk = new RevWalk(repo);
+		changelogWalk.setRetainBody(false);
+		try {
+			changelogWalk.setTreeFilter(AndTreeFilter.create(PathFilter.create(path), TreeFilter.ANY_DIFF));
+			changelogWalk.markStart(changelogWalk.parseCommit(head));
+			changelogWalk.markUninteresting(changelogWalk.parseCommit(known));
+
+			if (changelogWalk.next() != null) {
+				return null;
+			}
+		} finally {
+			changelogWalk.release();
+		}
+
+		return known;
+	}
+
+	/**
+	 * @return the latest changelog modification by the plugin account,
+	 *         or the latest changelog modification at all if there were none by the plugin,
+	 *         or <b>null</b> if changelog was never modified
+	 */
+	private ObjectId findBoundary(Repository repo, ObjectId head, String path) throws IOException {
+		RevWalk walk = new RevWalk(repo);
+		try {
+			walk.setTreeFilter(AndTreeFilter.create(PathFilter.create(path), TreeFilter.ANY_DIFF));
+			walk.markStart(walk.parseCommit(head));
+
+			ObjectId latestModification = null;
+			for (RevCommit commit: walk) {
+				PersonIdent author = commit.getAuthorIdent();
+				if (author.getName().equals(accountName) && author.getEmailAddress().equals(accountEmail)) {
+					return commit.copy();
+				}
+
+				if (latestModification == null) {
+					latestModification = commit.copy();
+				}
+			}
+
+			return latestModification;
+		} finally {
+			walk.release();
+		}
+	}
+
+	/**
+	 * Opens the repository containing the file it is invoked on and walks it, all on the node
+	 */
+	public static final class OnNode extends MasterToSlaveFileCallable<List<Change>> {
+		private static final long serialVersionUID = 1L;
+
+		private final GitChangelogWalker walker;
+
+		public OnNode(GitChangelogWalker walker) {
+			this.walker = walker;
+		}
+
+		@Override
+		public List<Change> invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
+			FileRepositoryBuilder builder = new FileRepositoryBuilder().findGitDir(file);
+			if (builder.getGitDir() == null) {
+				throw new IOException("No git repository found for " + file);
+			}
+
+			Repository repo = builder.setMustExist(true).build();
+			try {
+				return walker.invoke(repo, channel);
+			} finally {
+				repo.close();
+			}
+		}
+	}
+
+	private String getRepositoryPath(Repository repo) throws IOException {
+		String workTree = repo.getWorkTree().getCanonicalPath() + File.separator;
+		String changelogPath = new File(changelog).getCanonicalPath();
+
+		if (!changelogPath.startsWith(workTree)) {
+			throw new IOException("Changelog " + changelogPath + " is outside of git work tree " + workTree);
+		}
+
+		return changelogPath.substring(workTree.length()).replace(File.separatorChar, '/');
+	}
+}
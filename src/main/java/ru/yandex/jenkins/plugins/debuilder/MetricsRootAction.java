@@ -0,0 +1,41 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+
+import java.io.IOException;
+
+import jenkins.model.Jenkins;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Serves {@link PackageMetrics} at <i>/debian-package-metrics/</i> for Prometheus to scrape
+ *
+ * @author pupssman
+ */
+@Extension
+public class MetricsRootAction implements RootAction {
+	@Override
+	public String getIconFileName() {
+		return null;
+	}
+
+	@Override
+	public String getDisplayName() {
+		return "Debian package metrics";
+	}
+
+	@Override
+	public String getUrlName() {
+		return "debian-package-metrics";
+	}
+
+	public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		Jenkins.getInstance().checkPermission(Jenkins.READ);
+
+		rsp.setContentType("text/plain; version=0.0.4; charset=utf-8");
+		rsp.getWriter().write(PackageMetrics.render());
+	}
+}
@@ -0,0 +1,171 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory counters and histograms of package builds and uploads since Jenkins start,
+ * rendered in Prometheus text exposition format by {@link MetricsRootAction}.
+ *
+ * @author pupssman
+ */
+public class PackageMetrics {
+	private static final double[] DURATION_BUCKETS = {1, 5, 15, 30, 60, 120, 300, 600, 1800, 3600};
+
+	private static final AtomicLong builds = new AtomicLong();
+	private static final AtomicLong skipped = new AtomicLong();
+	private static final AtomicLong reused = new AtomicLong();
+	private static final Histogram debuildDuration = new Histogram(DURATION_BUCKETS);
+	private static final ConcurrentMap<String, AtomicLong> commands = new ConcurrentHashMap<String, AtomicLong>();
+	private static final ConcurrentMap<String, AtomicLong> uploadedBytes = new ConcurrentHashMap<String, AtomicLong>();
+	private static final ConcurrentMap<String, Histogram> uploadDuration = new ConcurrentHashMap<String, Histogram>();
+
+	/**
+	 * @param duration of debuild in milliseconds
+	 */
+	public static void buildPerformed(long duration) {
+		builds.incrementAndGet();
+		debuildDuration.observe(duration / 1000.0);
+	}
+
+	/**
+	 * Counts a build not performed as there were no changes
+	 */
+	public static void buildSkipped() {
+		skipped.incrementAndGet();
+	}
+
+	/**
+	 * Counts a build not performed as packages built earlier from the same sources were reused
+	 */
+	public static void buildReused() {
+		reused.incrementAndGet();
+	}
+
+	/**
+	 * Counts a process spawned to run a command of the phase, or to start a shell session for it;
+	 * commands run in an existing shell session spawn nothing and aren't counted
+	 */
+	public static void commandSpawned(String phase) {
+		getCounter(commands, phase).incrementAndGet();
+	}
+
+	/**
+	 * @param repo name of the repo
+	 * @param bytes uploaded
+	 * @param duration of the upload in milliseconds
+	 */
+	public static void uploaded(String repo, long bytes, long duration) {
+		getCounter(uploadedBytes, repo).addAndGet(bytes);
+
+		Histogram histogram = uploadDuration.get(repo);
+		if (histogram == null) {
+			uploadDuration.putIfAbsent(repo, new Histogram(DURATION_BUCKETS));
+			histogram = uploadDuration.get(repo);
+		}
+		histogram.observe(duration / 1000.0);
+	}
+
+	private static AtomicLong getCounter(ConcurrentMap<String, AtomicLong> counters, String label) {
+		AtomicLong counter = counters.get(label);
+
+		if (counter == null) {
+			counters.putIfAbsent(label, new AtomicLong());
+			counter = counters.get(label);
+		}
+
+		return counter;
+	}
+
+	/**
+	 * @return all the metrics in Prometheus text exposition format
+	 */
+	public static String render() {
+		StringBuilder out = new StringBuilder();
+
+		header(out, "debian_package_builds_total", "counter", "Packages built");
+		out.append("debian_package_builds_total ").append(builds.get()).append('\n');
+
+		header(out, "debian_package_builds_skipped_total", "counter", "Builds skipped as there were no changes");
+		out.append("debian_package_builds_skipped_total ").append(skipped.get()).append('\n');
+
+		header(out, "debian_package_builds_reused_total", "counter", "Builds skipped as packages built from the same sources were reused");
+		out.append("debian_package_builds_reused_total ").append(reused.get()).append('\n');
+
+		header(out, "debian_package_debuild_duration_seconds", "histogram", "Duration of debuild");
+		debuildDuration.render(out, "debian_package_debuild_duration_seconds", "");
+
+		header(out, "debian_package_commands_total", "counter", "Processes spawned to run commands, by phase");
+		for (Map.Entry<String, AtomicLong> counter: new TreeMap<String, AtomicLong>(commands).entrySet()) {
+			out.append("debian_package_commands_total").append(label("phase", counter.getKey())).append(' ').append(counter.getValue().get()).append('\n');
+		}
+
+		header(out, "debian_package_upload_bytes_total", "counter", "Bytes uploaded, by repository");
+		for (Map.Entry<String, AtomicLong> counter: new TreeMap<String, AtomicLong>(uploadedBytes).entrySet()) {
+			out.append("debian_package_upload_bytes_total").append(label("repo", counter.getKey())).append(' ').append(counter.getValue().get()).append('\n');
+		}
+
+		header(out, "debian_package_upload_duration_seconds", "histogram", "Duration of module uploads, by repository");
+		for (Map.Entry<String, Histogram> histogram: new TreeMap<String, Histogram>(uploadDuration).entrySet()) {
+			histogram.getValue().render(out, "debian_package_upload_duration_seconds", "repo=\"" + escape(histogram.getKey()) + "\",");
+		}
+
+		return out.toString();
+	}
+
+	private static void header(StringBuilder out, String name, String type, String help) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static String label(String name, String value) {
+		return "{" + name + "=\"" + escape(value) + "\"}";
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Cumulative histogram with fixed buckets
+	 */
+	static final class Histogram {
+		private final double[] bounds;
+		private final long[] counts;
+		private long count;
+		private double sum;
+
+		Histogram(double[] bounds) {
+			this.bounds = bounds;
+			this.counts = new long[bounds.length];
+		}
+
+		synchronized void observe(double value) {
+			for (int i = 0; i < bounds.length; i++) {
+				if (value <= bounds[i]) {
+					counts[i]++;
+				}
+			}
+
+			count++;
+			sum += value;
+		}
+
+		/**
+		 * @param labels labels to prepend to <i>le</i>, each followed by a comma
+		 */
+		synchronized void render(StringBuilder out, String name, String labels) {
+			for (int i = 0; i < bounds.length; i++) {
+				out.append(name).append("_bucket{").append(labels).append("le=\"").append(bounds[i]).append("\"} ").append(counts[i]).append('\n');
+			}
+			out.append(name).append("_bucket{").append(labels).append("le=\"+Inf\"} ").append(count).append('\n');
+
+			String plainLabels = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+			out.append(name).append("_sum").append(plainLabels).append(' ').append(sum).append('\n');
+			out.append(name).append("_count").append(plainLabels).append(' ').append(count).append('\n');
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Pojo to store binary packages a source package produces and the packages it needs to be built,
+ * as declared in debian/control
+ *
+ * @author pupssman
+ */
+public final class PackageRelations implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final Pattern ALTERNATIVES = Pattern.compile("\\|");
+	private static final Pattern NAME_END = Pattern.compile("[\\s(\\[<:]");
+
+	private final HashSet<String> binaries = new HashSet<String>();
+	private final HashSet<String> buildDepends = new HashSet<String>();
+
+	public Set<String> getBinaries() {
+		return binaries;
+	}
+
+	public Set<String> getBuildDepends() {
+		return buildDepends;
+	}
+
+	/**
+	 * @param other
+	 * @return <b>true</b> if building this package needs any of the binaries produced by the <b>other</b> one
+	 */
+	public boolean dependsOn(PackageRelations other) {
+		return !getBuildDependsOn(other).isEmpty();
+	}
+
+	/**
+	 * @param other
+	 * @return binaries produced by the <b>other</b> package which building this one needs
+	 */
+	public Set<String> getBuildDependsOn(PackageRelations other) {
+		Set<String> result = new HashSet<String>(other.binaries);
+		result.retainAll(buildDepends);
+		return result;
+	}
+
+	/**
+	 * Reads relations from debian/control, should be invoked on the control file itself.
+	 */
+	public static final class Reader extends MasterToSlaveFileCallable<PackageRelations> {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public PackageRelations invoke(File control, VirtualChannel channel) throws IOException, InterruptedException {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(control), "UTF-8"));
+			try {
+				return read(reader);
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	static PackageRelations read(BufferedReader reader) throws IOException {
+		PackageRelations result = new PackageRelations();
+		StringBuilder depends = null;
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.startsWith("#") || line.trim().isEmpty()) {
+				continue;
+			}
+
+			if (line.startsWith(" ") || line.startsWith("\t")) {
+				if (depends != null) {
+					depends.append(' ').append(line.trim());
+				}
+				continue;
+			}
+
+			int colon = line.indexOf(':');
+			String name = colon > 0 ? line.substring(0, colon).trim().toLowerCase() : "";
+			String value = line.substring(colon + 1).trim();
+
+			if (depends != null) {
+				addDepends(result, depends.toString());
+				depends = null;
+			}
+
+			if (name.equals("package")) {
+				result.binaries.add(value);
+			} else if (name.startsWith("build-depends")) {
+				depends = new StringBuilder(value);
+			}
+		}
+
+		if (depends != null) {
+			addDepends(result, depends.toString());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Adds names of the packages in relationship field like <i>foo (&gt;= 1.0) [amd64], bar | baz</i>
+	 */
+	private static void addDepends(PackageRelations result, String field) {
+		for (String alternatives: field.split(",")) {
+			for (String relation: ALTERNATIVES.split(alternatives)) {
+				String name = NAME_END.split(relation.trim(), 2)[0];
+				if (!name.isEmpty()) {
+					result.buildDepends.add(name);
+				}
+			}
+		}
+	}
+}
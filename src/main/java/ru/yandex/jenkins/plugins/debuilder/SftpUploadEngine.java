@@ -0,0 +1,307 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.HashSet;
+import java.util.List;
+
+import jenkins.MasterToSlaveFileCallable;
+import ru.yandex.jenkins.plugins.debuilder.DebUtils.Runner;
+
+import com.trilead.ssh2.Connection;
+import com.trilead.ssh2.KnownHosts;
+import com.trilead.ssh2.SFTPException;
+import com.trilead.ssh2.SFTPv3Client;
+import com.trilead.ssh2.SFTPv3FileAttributes;
+import com.trilead.ssh2.SFTPv3FileHandle;
+import com.trilead.ssh2.ServerHostKeyVerifier;
+import com.trilead.ssh2.crypto.Base64;
+import com.trilead.ssh2.sftp.ErrorCodes;
+
+/**
+ * Uploads files listed in the <i>.changes</i> of a module right from the node over a single SFTP session,
+ * checking every file against checksums from <i>.changes</i> while it is sent.
+ * Files uploaded before are only skipped while they are still in the incoming directory with the same size,
+ * as the repository rejects a <i>.changes</i> missing any of its files.
+ *
+ * Needs no tools on the node; <i>fqdn</i> of the repo may be given as <i>host:port</i>.
+ * The host is only trusted if its key is in <i>~/.ssh/known_hosts</i> of the node or is the host key configured for the repo.
+ *
+ * @author pupssman
+ */
+public class SftpUploadEngine extends UploadEngine {
+	private static final int DEFAULT_PORT = 22;
+
+	private AbstractBuild<?, ?> build;
+	private String key;
+
+	public SftpUploadEngine(DebianPackageRepo repo) throws DebianizingException {
+		super(repo);
+	}
+
+	@Override
+	public String[] getRequiredPackages() {
+		return new String[0];
+	}
+
+	@Override
+	public void prepare(AbstractBuild<?, ?> build, Runner runner) throws IOException, InterruptedException, DebianizingException {
+		this.build = build;
+		this.key = readKey();
+	}
+
+	@Override
+	public long upload(Runner runner, String module) throws IOException, InterruptedException, DebianizingException {
+		long total = 0;
+
+		for (FilePath changes: findChanges(runner, module)) {
+			ChangesFile parsed = changes.act(new ChangesFile.Reader());
+
+			if (isUploaded(parsed)) {
+				runner.announce("All the files of {0} are already in {1}, skipping", changes.getName(), repo.getName());
+				continue;
+			}
+
+			HashSet<String> skipped = new HashSet<String>();
+			for (ChangesFile.Entry entry: parsed.getEntries()) {
+				if (isUploaded(entry)) {
+					skipped.add(entry.getName());
+				}
+			}
+
+			if (!skipped.isEmpty()) {
+				runner.announce("Files {0} were uploaded to {1} before, sending only those missing from its incoming", skipped, repo.getName());
+			}
+
+			long started = System.currentTimeMillis();
+			long bytes = changes.act(new Upload(getHost(repo.getFqdn()), getPort(repo.getFqdn()), repo.getLogin(), key, Util.fixEmptyAndTrim(repo.getHostKey()), repo.getIncoming(), skipped));
+			runner.announce("Uploaded {0} ({1} bytes) to {2} in {3}", changes.getName(), bytes, repo.getName(), Util.getTimeSpanString(System.currentTimeMillis() - started));
+			BuildTimings.record(build, BuildTimings.UPLOAD, started);
+
+			manifest.record(parsed);
+			total += bytes;
+		}
+
+		return total;
+	}
+
+	@Override
+	public void cleanup(Runner runner) {
+		build = null;
+		key = null;
+	}
+
+	static String getHost(String fqdn) {
+		int colon = fqdn.lastIndexOf(':');
+		return colon < 0 ? fqdn : fqdn.substring(0, colon);
+	}
+
+	static int getPort(String fqdn) {
+		int colon = fqdn.lastIndexOf(':');
+		return colon < 0 ? DEFAULT_PORT : Integer.parseInt(fqdn.substring(colon + 1));
+	}
+
+	/**
+	 * Uploads the .changes it is invoked on and the files it lists, .changes itself goes last.
+	 * Files uploaded before are skipped if they are still in the incoming directory with the size listed in the .changes.
+	 */
+	static final class Upload extends MasterToSlaveFileCallable<Long> {
+		private static final long serialVersionUID = 1L;
+		private static final int CHUNK = 32768;
+
+		private final String host;
+		private final int port;
+		private final String login;
+		private final String key;
+		private final String hostKey;
+		private final String incoming;
+		private final HashSet<String> skipped;
+
+		/**
+		 * @param hostKey public key of the host as in <i>known_hosts</i>, trusted along with <i>known_hosts</i> of the node, or <b>null</b>
+		 */
+		Upload(String host, int port, String login, String key, String hostKey, String incoming, HashSet<String> skipped) {
+			this.host = host;
+			this.port = port;
+			this.login = login;
+			this.key = key;
+			this.hostKey = hostKey;
+			this.incoming = incoming;
+			this.skipped = skipped;
+		}
+
+		@Override
+		public Long invoke(File changes, VirtualChannel channel) throws IOException, InterruptedException {
+			List<ChangesFile.Entry> entries = new ChangesFile.Reader().invoke(changes, channel).getEntries();
+			long bytes = 0;
+
+			Connection connection = new Connection(host, port);
+			try {
+				HostKeyVerifier verifier = new HostKeyVerifier(getKnownHosts());
+				try {
+					connection.connect(verifier);
+				} catch (IOException e) {
+					if (verifier.rejected != null) {
+						throw new IOException(verifier.rejected, e);
+					}
+					throw e;
+				}
+
+				if (!connection.authenticateWithPublicKey(login, key.toCharArray(), null)) {
+					throw new IOException(MessageFormat.format("Failed to authenticate as {0} at {1}", login, host));
+				}
+
+				SFTPv3Client sftp = new SFTPv3Client(connection);
+				try {
+					for (ChangesFile.Entry entry: entries) {
+						if (skipped.contains(entry.getName()) && isInIncoming(sftp, entry)) {
+							continue;
+						}
+
+						bytes += put(sftp, new File(changes.getParentFile(), entry.getName()), entry);
+					}
+
+					bytes += put(sftp, changes, null);
+				} finally {
+					sftp.close();
+				}
+			} finally {
+				connection.close();
+			}
+
+			return bytes;
+		}
+
+		/**
+		 * Streams the file to the incoming directory, digesting what is actually sent
+		 *
+		 * @param entry expected size and checksums, <b>null</b> if nothing is known
+		 * @return bytes sent
+		 */
+		private long put(SFTPv3Client sftp, File file, ChangesFile.Entry entry) throws IOException {
+			String remote = incoming + "/" + file.getName();
+			MessageDigest digest = getDigest(entry);
+			byte[] buffer = new byte[CHUNK];
+			long offset = 0;
+
+			InputStream input = new FileInputStream(file);
+			try {
+				SFTPv3FileHandle handle = sftp.createFileTruncate(remote);
+				try {
+					int read;
+					while ((read = input.read(buffer)) > 0) {
+						sftp.write(handle, offset, buffer, 0, read);
+						digest.update(buffer, 0, read);
+						offset += read;
+					}
+				} finally {
+					sftp.closeFile(handle);
+				}
+			} finally {
+				input.close();
+			}
+
+			if (entry != null) {
+				String expected = entry.getSha256() != null ? entry.getSha256() : entry.getMd5();
+				String actual = Util.toHexString(digest.digest());
+
+				if (entry.getSize() != offset || !actual.equalsIgnoreCase(expected)) {
+					// not to leave it for the repository to process
+					sftp.rm(remote);
+					throw new IOException(MessageFormat.format("{0} does not match its .changes: {1} bytes with checksum {2} sent, {3} bytes with checksum {4} expected",
+							file.getName(), offset, actual, entry.getSize(), expected));
+				}
+			}
+
+			SFTPv3FileAttributes attributes = sftp.stat(remote);
+			if (attributes.size == null || attributes.size.longValue() != offset) {
+				sftp.rm(remote);
+				throw new IOException(MessageFormat.format("{0} has size {1} on {2} while {3} bytes were sent", remote, attributes.size, host, offset));
+			}
+
+			return offset;
+		}
+
+		private boolean isInIncoming(SFTPv3Client sftp, ChangesFile.Entry entry) throws IOException {
+			try {
+				SFTPv3FileAttributes attributes = sftp.stat(incoming + "/" + entry.getName());
+				return attributes.size != null && attributes.size.longValue() == entry.getSize();
+			} catch (SFTPException e) {
+				if (e.getServerErrorCode() == ErrorCodes.SSH_FX_NO_SUCH_FILE) {
+					return false;
+				}
+				throw e;
+			}
+		}
+
+		private static MessageDigest getDigest(ChangesFile.Entry entry) throws IOException {
+			try {
+				return MessageDigest.getInstance(entry != null && entry.getSha256() == null ? "MD5" : "SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+
+		/**
+		 * @return keys of user's known_hosts on the node, if there is one, and the configured host key
+		 */
+		private KnownHosts getKnownHosts() throws IOException {
+			File knownHostsFile = new File(System.getProperty("user.home"), ".ssh/known_hosts");
+			KnownHosts knownHosts = knownHostsFile.exists() ? new KnownHosts(knownHostsFile) : new KnownHosts();
+
+			if (hostKey != null) {
+				String[] fields = hostKey.split("\\s+");
+				// either a whole known_hosts line or just the algorithm and the key
+				int algorithm = fields.length > 2 && !fields[0].startsWith("ssh-") ? 1 : 0;
+				if (fields.length < algorithm + 2) {
+					throw new IOException(MessageFormat.format("Host key of {0} should look like ''ssh-rsa AAAA...'', got ''{1}''", host, hostKey));
+				}
+
+				knownHosts.addHostkeyEntry(new String[] {host}, fields[algorithm], Base64.decode(fields[algorithm + 1].toCharArray()));
+			}
+
+			return knownHosts;
+		}
+	}
+
+	/**
+	 * Accepts only the hosts whose key is known, remembering why the host was rejected otherwise
+	 */
+	static final class HostKeyVerifier implements ServerHostKeyVerifier {
+		private final KnownHosts knownHosts;
+		private String rejected;
+
+		HostKeyVerifier(KnownHosts knownHosts) {
+			this.knownHosts = knownHosts;
+		}
+
+		@Override
+		public boolean verifyServerHostKey(String hostname, int port, String serverHostKeyAlgorithm, byte[] serverHostKey) throws Exception {
+			int result = knownHosts.verifyHostkey(hostname, serverHostKeyAlgorithm, serverHostKey);
+
+			if (result == KnownHosts.HOSTKEY_IS_OK) {
+				return true;
+			}
+
+			String fingerprint = KnownHosts.createHexFingerprint(serverHostKeyAlgorithm, serverHostKey);
+			if (result == KnownHosts.HOSTKEY_HAS_CHANGED) {
+				rejected = MessageFormat.format("Host key of {0} has changed: got {1} key {2}, refusing to upload", hostname, serverHostKeyAlgorithm, fingerprint);
+			} else {
+				rejected = MessageFormat.format("Host key of {0} is unknown: {1} key {2} is neither in ~/.ssh/known_hosts of the node nor the host key of the repository, refusing to upload",
+						hostname, serverHostKeyAlgorithm, fingerprint);
+			}
+
+			return false;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.UUID;
+
+/**
+ * Long-lived <i>bash</i> process on the node, commands are piped into its stdin one by one
+ * and their exit codes are read back from sentinel lines in its stdout.
+ *
+ * Every command runs in a subshell with <i>set -e</i> and stdin from <i>/dev/null</i>,
+ * so it can neither change the state of the session nor eat the commands following it.
+ *
+ * @author pupssman
+ */
+public class ShellSession {
+	// how long the session is given to exit after its stdin is closed, in milliseconds
+	private static final long EXIT_TIMEOUT = 10000;
+	private static final long EXIT_POLL = 100;
+
+	private final String sentinel = "__debian_package_builder_" + UUID.randomUUID().toString().replace("-", "") + "__";
+
+	private final Proc proc;
+	private final BufferedReader stdout;
+	private final Writer stdin;
+
+	/**
+	 * Handles command output line by line
+	 */
+	public interface LineHandler {
+		void line(String line) throws IOException;
+	}
+
+	/**
+	 * Starts a session
+	 *
+	 * @param launcher
+	 * @param env environment of the session
+	 * @param pwd working directory of the session
+	 * @param stderr where stderr of the commands not merging it goes
+	 * @throws IOException
+	 */
+	public ShellSession(Launcher launcher, EnvVars env, FilePath pwd, PrintStream stderr) throws IOException {
+		proc = launcher.launch().cmds("bash", "-s").envs(env).pwd(pwd).writeStdin().readStdout().stderr(stderr).start();
+		stdout = new BufferedReader(new InputStreamReader(proc.getStdout(), "UTF-8"));
+		stdin = new OutputStreamWriter(proc.getStdin(), "UTF-8");
+	}
+
+	/**
+	 * Runs the command and waits for it to finish
+	 *
+	 * @param command
+	 * @param mergeStderr if stderr of the command should go to the handler too
+	 * @param handler gets the output of the command
+	 * @return exit code of the command
+	 * @throws IOException if the session is broken
+	 */
+	public synchronized int run(String command, boolean mergeStderr, LineHandler handler) throws IOException {
+		stdin.write("(\nset -e\n" + command + "\n) </dev/null" + (mergeStderr ? " 2>&1" : "") + "; printf '%s %d\\n' " + sentinel + " $?\n");
+		stdin.flush();
+
+		String line;
+		while ((line = stdout.readLine()) != null) {
+			int at = line.indexOf(sentinel);
+
+			if (at < 0) {
+				handler.line(line);
+				continue;
+			}
+
+			if (at > 0) {
+				handler.line(line.substring(0, at));
+			}
+
+			try {
+				return Integer.parseInt(line.substring(at + sentinel.length()).trim());
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed exit code line: " + line);
+			}
+		}
+
+		throw new IOException("Shell session ended unexpectedly");
+	}
+
+	/**
+	 * Ends the session, killing it if it doesn't exit on its own
+	 */
+	public void close() throws IOException, InterruptedException {
+		try {
+			stdin.close();
+
+			// bash exits by itself on the end of its stdin
+			long deadline = System.currentTimeMillis() + EXIT_TIMEOUT;
+			while (proc.isAlive() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(EXIT_POLL);
+			}
+		} finally {
+			if (proc.isAlive()) {
+				proc.kill();
+			}
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Per-job on-disk index of packages built from every source tree, stored in the job directory.
+ *
+ * Keyed by the module, the distribution and the {@link SourceTreeHasher} digest of the sources,
+ * it tells which build already produced packages out of the very same sources, so that they can be reused instead of rebuilt.
+ *
+ * @author pupssman
+ */
+public class SourceIndex {
+	private static final String FILE_NAME = "debian-package-builder-sources.xml";
+	private static final int INDEX_SIZE = 1000;
+
+	// key -> build, oldest first
+	private LinkedHashMap<String, Built> built = new LinkedHashMap<String, Built>();
+
+	/**
+	 * @param project
+	 * @return index stored in the directory of the project or an empty one if there is none yet
+	 */
+	public static synchronized SourceIndex load(AbstractProject<?, ?> project) throws IOException {
+		XmlFile file = getFile(project);
+
+		if (!file.exists()) {
+			return new SourceIndex();
+		}
+
+		SourceIndex index = (SourceIndex) file.read();
+		if (index.built == null) {
+			index.built = new LinkedHashMap<String, Built>();
+		}
+
+		return index;
+	}
+
+	/**
+	 * Records packages built out of the sources and saves the index of the project
+	 */
+	public static synchronized void record(AbstractProject<?, ?> project, String module, String distribution, String hash, Built packages) throws IOException {
+		SourceIndex index = load(project);
+		String key = getKey(module, distribution, hash);
+
+		index.built.remove(key);
+		index.built.put(key, packages);
+
+		Iterator<Map.Entry<String, Built>> oldest = index.built.entrySet().iterator();
+		while (index.built.size() > INDEX_SIZE) {
+			oldest.next();
+			oldest.remove();
+		}
+
+		getFile(project).write(index);
+	}
+
+	private static XmlFile getFile(AbstractProject<?, ?> project) {
+		return new XmlFile(Jenkins.XSTREAM, new File(project.getRootDir(), FILE_NAME));
+	}
+
+	private static String getKey(String module, String distribution, String hash) {
+		return module + "\n" + distribution + "\n" + hash;
+	}
+
+	/**
+	 * @param module path of the module relative to the workspace
+	 * @param distribution
+	 * @param hash
+	 * @return packages built from the very same sources or <b>null</b> if there are none
+	 */
+	public Built get(String module, String distribution, String hash) {
+		return built.get(getKey(module, distribution, hash));
+	}
+
+	/**
+	 * Packages built by a build
+	 */
+	public static final class Built {
+		private final int number;
+		private final String source;
+		private final String version;
+
+		public Built(int number, String source, String version) {
+			this.number = number;
+			this.source = source;
+			this.version = version;
+		}
+
+		public int getNumber() {
+			return number;
+		}
+
+		public String getSource() {
+			return source;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Calculates SHA-256 of the source tree of a module: relative paths, executable bits and contents of all the files, in sorted order.
+ *
+ * Left out are debian/changelog, which changes with every build while the sources don't,
+ * version control directories, and whatever debhelper leaves in debian/ after a build, including the directories of the binary packages.
+ *
+ * Should be invoked on the root of the module.
+ *
+ * @author pupssman
+ */
+public class SourceTreeHasher extends MasterToSlaveFileCallable<String> {
+	private static final long serialVersionUID = 1L;
+	private static final Set<String> VCS = new HashSet<String>(Arrays.asList(".git", ".svn", ".hg", ".bzr"));
+	private static final Set<String> DEBIAN_PRODUCTS = new HashSet<String>(Arrays.asList("changelog", "files", "tmp", ".debhelper", "debhelper-build-stamp"));
+
+	private final HashSet<String> binaries;
+
+	/**
+	 * @param binaries names of the binary packages built by the module
+	 */
+	public SourceTreeHasher(Set<String> binaries) {
+		this.binaries = new HashSet<String>(binaries);
+	}
+
+	@Override
+	public String invoke(File root, VirtualChannel channel) throws IOException, InterruptedException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-256 is not supported", e);
+		}
+
+		update(digest, root, "", new byte[64 * 1024]);
+		return Util.toHexString(digest.digest());
+	}
+
+	private void update(MessageDigest digest, File dir, String path, byte[] buffer) throws IOException, InterruptedException {
+		String[] names = dir.list();
+		if (names == null) {
+			throw new IOException("Failed to list " + dir);
+		}
+		Arrays.sort(names);
+
+		for (String name: names) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+
+			File file = new File(dir, name);
+			String relative = path + name;
+
+			if (isExcluded(relative, name)) {
+				continue;
+			}
+
+			String target = Util.resolveSymlink(file);
+			if (target != null) {
+				digest.update(("L " + relative + '\0' + target + '\0').getBytes("UTF-8"));
+			} else if (file.isDirectory()) {
+				update(digest, file, relative + "/", buffer);
+			} else {
+				digest.update(((file.canExecute() ? "X " : "F ") + relative + '\0' + file.length() + '\0').getBytes("UTF-8"));
+
+				InputStream input = new FileInputStream(file);
+				try {
+					int read;
+					while ((read = input.read(buffer)) > 0) {
+						digest.update(buffer, 0, read);
+					}
+				} finally {
+					input.close();
+				}
+			}
+		}
+	}
+
+	private boolean isExcluded(String relative, String name) {
+		if (relative.equals(name)) {
+			return VCS.contains(name);
+		}
+
+		if (!relative.equals("debian/" + name)) {
+			return false;
+		}
+
+		return DEBIAN_PRODUCTS.contains(name) || binaries.contains(name) || name.endsWith(".substvars") || name.endsWith(".debhelper.log") || name.endsWith(".debhelper");
+	}
+}
@@ -0,0 +1,241 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.Extension;
+import hudson.model.TaskListener;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.listeners.RunListener;
+import hudson.util.AtomicFileWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per-job log of phase timings of finished builds, stored in the job directory.
+ *
+ * Each build is a single line <i>number&lt;TAB&gt;node&lt;TAB&gt;phase=millis,phase=millis</i>,
+ * so trends can be calculated without loading the builds themselves.
+ * Only the tail of the log is read, and the log is trimmed to {@link #KEPT_RECORDS} latest builds once it grows past {@link #TRIM_SIZE} bytes.
+ *
+ * @author pupssman
+ */
+public class TimingsHistory {
+	private static final String FILE_NAME = "debian-package-builder-timings.log";
+	private static final Logger LOGGER = Logger.getLogger(TimingsHistory.class.getName());
+	static final int KEPT_RECORDS = 1000;
+	static final long TRIM_SIZE = 512 * 1024;
+	private static final int CHUNK = 8192;
+
+	/**
+	 * Appends timings of the build to the history of its project
+	 *
+	 * @param build
+	 * @param timings
+	 * @throws IOException
+	 */
+	public static synchronized void append(AbstractBuild<?, ?> build, BuildTimings timings) throws IOException {
+		StringBuilder line = new StringBuilder();
+		line.append(build.getNumber()).append('\t').append(timings.getNode()).append('\t');
+
+		boolean first = true;
+		for (BuildTimings.Phase phase: timings.getPhases()) {
+			if (!first) {
+				line.append(',');
+			}
+			line.append(phase.getName()).append('=').append(phase.getDuration());
+			first = false;
+		}
+
+		File file = getFile(build.getProject());
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+		try {
+			writer.write(line.append('\n').toString());
+		} finally {
+			writer.close();
+		}
+
+		if (file.length() > TRIM_SIZE) {
+			trim(file);
+		}
+	}
+
+	/**
+	 * Rewrites the log leaving only {@link #KEPT_RECORDS} latest lines
+	 */
+	private static void trim(File file) throws IOException {
+		AtomicFileWriter writer = new AtomicFileWriter(file, "UTF-8");
+		try {
+			for (String line: readTail(file, KEPT_RECORDS)) {
+				writer.write(line);
+				writer.write('\n');
+			}
+			writer.commit();
+		} finally {
+			writer.abort();
+		}
+	}
+
+	/**
+	 * @param project
+	 * @param limit maximum number of builds to return
+	 * @return timings of up to <b>limit</b> latest builds of the project, oldest first
+	 * @throws IOException
+	 */
+	public static synchronized List<Record> read(AbstractProject<?, ?> project, int limit) throws IOException {
+		List<Record> result = new ArrayList<Record>();
+		File file = getFile(project);
+
+		if (!file.exists()) {
+			return result;
+		}
+
+		for (String line: readTail(file, limit)) {
+			Record record = Record.parse(line);
+
+			if (record != null) {
+				result.add(record);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Reads the file backwards in chunks until enough lines are found, so that the cost doesn't depend on the size of the file
+	 *
+	 * @return up to <b>limit</b> last non-empty lines of the file, oldest first
+	 */
+	static List<String> readTail(File file, int limit) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			long length = input.length();
+			long start = length;
+			int newlines = 0;
+			byte[] chunk = new byte[CHUNK];
+
+			// the last line ends with a newline, so the first of the last <limit> lines follows the newline number <limit + 1> from the end
+			while (start > 0 && newlines <= limit) {
+				int size = (int) Math.min(CHUNK, start);
+				start -= size;
+				input.seek(start);
+				input.readFully(chunk, 0, size);
+
+				for (int i = size - 1; i >= 0; i--) {
+					if (chunk[i] == '\n' && ++newlines > limit) {
+						start += i + 1;
+						break;
+					}
+				}
+			}
+
+			byte[] tail = new byte[(int) (length - start)];
+			input.seek(start);
+			input.readFully(tail);
+
+			LinkedList<String> result = new LinkedList<String>();
+			for (String line: new String(tail, "UTF-8").split("\n")) {
+				if (!line.isEmpty()) {
+					result.add(line);
+					if (result.size() > limit) {
+						result.removeFirst();
+					}
+				}
+			}
+
+			return new ArrayList<String>(result);
+		} finally {
+			input.close();
+		}
+	}
+
+	private static File getFile(AbstractProject<?, ?> project) {
+		return new File(project.getRootDir(), FILE_NAME);
+	}
+
+	/**
+	 * Timings of a single build
+	 */
+	public static final class Record {
+		private final int number;
+		private final String node;
+		private final Map<String, Long> durations;
+
+		public Record(int number, String node, Map<String, Long> durations) {
+			this.number = number;
+			this.node = node;
+			this.durations = durations;
+		}
+
+		/**
+		 * @return parsed record or <b>null</b> if the line is malformed
+		 */
+		static Record parse(String line) {
+			String[] fields = line.split("\t", -1);
+			if (fields.length != 3) {
+				return null;
+			}
+
+			try {
+				Map<String, Long> durations = new LinkedHashMap<String, Long>();
+				for (String phase: fields[2].split(",")) {
+					int equals = phase.indexOf('=');
+					if (equals > 0) {
+						durations.put(phase.substring(0, equals), Long.parseLong(phase.substring(equals + 1)));
+					}
+				}
+
+				return new Record(Integer.parseInt(fields[0]), fields[1], durations);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+
+		public int getNumber() {
+			return number;
+		}
+
+		/**
+		 * @return node the build was performed on, empty string for master
+		 */
+		public String getNode() {
+			return node;
+		}
+
+		public Map<String, Long> getDurations() {
+			return durations;
+		}
+	}
+
+	/**
+	 * Appends timings of every finished build having any
+	 */
+	@SuppressWarnings("rawtypes")
+	@Extension
+	public static final class Recorder extends RunListener<AbstractBuild> {
+		@Override
+		public void onCompleted(AbstractBuild build, TaskListener listener) {
+			BuildTimings timings = (BuildTimings) build.getAction(BuildTimings.class);
+
+			if (timings == null) {
+				return;
+			}
+
+			try {
+				append(build, timings);
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Failed to record timings of " + build, e);
+			}
+		}
+	}
+}
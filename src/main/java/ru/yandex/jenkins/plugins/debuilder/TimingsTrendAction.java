@@ -0,0 +1,187 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Action;
+import hudson.model.AbstractProject;
+import hudson.model.TransientProjectActionFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Project page showing median and 95th percentile of every packaging phase per node over the latest builds,
+ * calculated from {@link TimingsHistory} without loading the builds.
+ * The number of builds is taken from the <i>builds</i> query parameter, up to {@link TimingsHistory#KEPT_RECORDS}.
+ *
+ * @author pupssman
+ */
+public class TimingsTrendAction implements Action {
+	public static final int DEFAULT_BUILDS = 100;
+
+	private final AbstractProject<?, ?> project;
+
+	public TimingsTrendAction(AbstractProject<?, ?> project) {
+		this.project = project;
+	}
+
+	public AbstractProject<?, ?> getProject() {
+		return project;
+	}
+
+	/**
+	 * @return number of the latest builds requested, {@link #DEFAULT_BUILDS} unless asked otherwise
+	 */
+	public int getBuilds() {
+		StaplerRequest request = Stapler.getCurrentRequest();
+		return parseBuilds(request == null ? null : request.getParameter("builds"));
+	}
+
+	static int parseBuilds(String builds) {
+		if (builds == null) {
+			return DEFAULT_BUILDS;
+		}
+
+		try {
+			return Math.max(1, Math.min(TimingsHistory.KEPT_RECORDS, Integer.parseInt(builds.trim())));
+		} catch (NumberFormatException e) {
+			return DEFAULT_BUILDS;
+		}
+	}
+
+	/**
+	 * @return statistics of every phase on every node over {@link #getBuilds()} latest builds, sorted by phase and node
+	 * @throws IOException
+	 */
+	public List<PhaseStatistics> getStatistics() throws IOException {
+		// phase -> node -> durations
+		Map<String, Map<String, List<Long>>> samples = new TreeMap<String, Map<String, List<Long>>>();
+
+		for (TimingsHistory.Record record: TimingsHistory.read(project, getBuilds())) {
+			for (Map.Entry<String, Long> duration: record.getDurations().entrySet()) {
+				Map<String, List<Long>> nodes = samples.get(duration.getKey());
+				if (nodes == null) {
+					nodes = new TreeMap<String, List<Long>>();
+					samples.put(duration.getKey(), nodes);
+				}
+
+				List<Long> durations = nodes.get(record.getNode());
+				if (durations == null) {
+					durations = new ArrayList<Long>();
+					nodes.put(record.getNode(), durations);
+				}
+
+				durations.add(duration.getValue());
+			}
+		}
+
+		List<PhaseStatistics> result = new ArrayList<PhaseStatistics>();
+		for (Map.Entry<String, Map<String, List<Long>>> phase: samples.entrySet()) {
+			for (Map.Entry<String, List<Long>> node: phase.getValue().entrySet()) {
+				result.add(new PhaseStatistics(phase.getKey(), node.getKey(), node.getValue()));
+			}
+		}
+
+		return result;
+	}
+
+	@Override
+	public String getIconFileName() {
+		return "clock.png";
+	}
+
+	@Override
+	public String getDisplayName() {
+		return "Debian package build timings";
+	}
+
+	@Override
+	public String getUrlName() {
+		return "debian-timings";
+	}
+
+	/**
+	 * Adds the page once to every project having any {@link DebianPackageBuilder} or {@link DebianMultiPackageBuilder}, however many of them it has
+	 */
+	@Extension
+	public static final class Factory extends TransientProjectActionFactory {
+		@SuppressWarnings("rawtypes")
+		@Override
+		public Collection<? extends Action> createFor(AbstractProject target) {
+			if (DebianPackageBuilder.getDPBuilders(target).isEmpty()) {
+				return Collections.emptyList();
+			}
+
+			return Collections.singletonList(new TimingsTrendAction(target));
+		}
+	}
+
+	/**
+	 * Durations of a phase on a node
+	 */
+	public static final class PhaseStatistics {
+		private final String phase;
+		private final String node;
+		private final int count;
+		private final long p50;
+		private final long p95;
+
+		public PhaseStatistics(String phase, String node, List<Long> durations) {
+			List<Long> sorted = new ArrayList<Long>(durations);
+			Collections.sort(sorted);
+
+			this.phase = phase;
+			this.node = node;
+			this.count = sorted.size();
+			this.p50 = getPercentile(sorted, 50);
+			this.p95 = getPercentile(sorted, 95);
+		}
+
+		/**
+		 * @return nearest-rank percentile of non-empty sorted list
+		 */
+		static long getPercentile(List<Long> sorted, int percentile) {
+			int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+			return sorted.get(Math.max(0, rank - 1));
+		}
+
+		public String getPhase() {
+			return phase;
+		}
+
+		/**
+		 * @return name of the node, <i>master</i> for master
+		 */
+		public String getNode() {
+			return node.isEmpty() ? "master" : node;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public long getP50() {
+			return p50;
+		}
+
+		public long getP95() {
+			return p95;
+		}
+
+		public String getP50String() {
+			return Util.getTimeSpanString(p50);
+		}
+
+		public String getP95String() {
+			return Util.getTimeSpanString(p95);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.FilePath;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import jedi.functional.FunctionalPrimitives;
+import ru.yandex.jenkins.plugins.debuilder.DebUtils.LineProcessor;
+import ru.yandex.jenkins.plugins.debuilder.DebUtils.Runner;
+
+/**
+ * Remembers which debian packages providing our tools are known to be installed on each node,
+ * so that <i>apt-get update</i> and <i>apt-get install</i> are only run when something is actually missing.
+ *
+ * Knowledge about a node is dropped as soon as its dpkg status file changes or gets older than the configured TTL.
+ *
+ * @author pupssman
+ */
+public class ToolsCache {
+	private static final String DPKG_STATUS = "/var/lib/dpkg/status";
+	private static final String DPKG_STATUS_QUERY = "dpkg -s ";
+	private static final String INSTALLED = "install ok installed";
+
+	private static final ConcurrentMap<String, NodeTools> nodes = new ConcurrentHashMap<String, NodeTools>();
+
+	/**
+	 * Makes sure given packages are installed on the node, installing them if needed
+	 *
+	 * @param runner
+	 * @param node name of the node the runner runs commands on
+	 * @param ttlMinutes how long the knowledge about installed packages is trusted
+	 * @param aptCache to download the packages through
+	 * @param packages
+	 * @throws InterruptedException
+	 * @throws DebianizingException
+	 */
+	public static void ensureInstalled(Runner runner, String node, long ttlMinutes, AptCache aptCache, String... packages) throws InterruptedException, DebianizingException {
+		long statusModified = getStatusModified(runner);
+		NodeTools known = nodes.get(node);
+
+		if (known != null && known.isValid(statusModified, TimeUnit.MINUTES.toMillis(ttlMinutes)) && known.hasAll(packages)) {
+			runner.announce("Packages {0} are known to be installed on <{1}>, skipping apt", FunctionalPrimitives.join(Arrays.asList(packages), " "), node);
+			return;
+		}
+
+		Map<String, String> versions = probe(runner, packages);
+
+		if (versions.size() < packages.length) {
+			runner.runCommand("sudo apt-get -y update");
+			runner.runCommand("sudo " + aptCache.getSudoEnv() + "apt-get -y install " + FunctionalPrimitives.join(Arrays.asList(packages), " "));
+			versions = probe(runner, packages);
+			statusModified = getStatusModified(runner);
+		}
+
+		for (Map.Entry<String, String> version: versions.entrySet()) {
+			runner.announce("Using {0} version {1}", version.getKey(), version.getValue());
+		}
+
+		NodeTools updated = new NodeTools(statusModified);
+		if (known != null && known.statusModified == statusModified) {
+			updated.versions.putAll(known.versions);
+		}
+		updated.versions.putAll(versions);
+		nodes.put(node, updated);
+	}
+
+	/**
+	 * Forget everything known about all the nodes
+	 */
+	static void clear() {
+		nodes.clear();
+	}
+
+	/**
+	 * @return versions of the given packages that are actually installed
+	 */
+	private static Map<String, String> probe(Runner runner, String... packages) throws DebianizingException {
+		// dpkg exits with non-zero code if any of the packages is missing, which is fine
+		return runner.runCommandForLines(DPKG_STATUS_QUERY + FunctionalPrimitives.join(Arrays.asList(packages), " "), new StatusParser()).getResult();
+	}
+
+	/**
+	 * @return modification time of the dpkg status file of the node, 0 if it can't be read
+	 */
+	static long getStatusModified(Runner runner) throws InterruptedException {
+		try {
+			return new FilePath(runner.getChannel(), DPKG_STATUS).lastModified();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Picks versions of installed packages from <i>dpkg -s</i> output
+	 */
+	static final class StatusParser implements LineProcessor<HashMap<String, String>> {
+		private static final long serialVersionUID = 1L;
+
+		private final HashMap<String, String> result = new HashMap<String, String>();
+		private String pkg;
+		private String status;
+
+		@Override
+		public boolean processLine(String row) {
+			if (row.startsWith("Package:")) {
+				pkg = row.substring("Package:".length()).trim();
+				status = null;
+			} else if (row.startsWith("Status:")) {
+				status = row.substring("Status:".length()).trim();
+			} else if (row.startsWith("Version:") && pkg != null && INSTALLED.equals(status)) {
+				result.put(pkg, row.substring("Version:".length()).trim());
+			}
+
+			return true;
+		}
+
+		@Override
+		public HashMap<String, String> getResult() {
+			return result;
+		}
+	}
+
+	private static final class NodeTools {
+		private final long statusModified;
+		private final long checked = System.currentTimeMillis();
+		private final Map<String, String> versions = new HashMap<String, String>();
+
+		private NodeTools(long statusModified) {
+			this.statusModified = statusModified;
+		}
+
+		private boolean isValid(long statusModified, long ttl) {
+			return this.statusModified == statusModified && System.currentTimeMillis() - checked < ttl;
+		}
+
+		private boolean hasAll(String... packages) {
+			for (String pkg: packages) {
+				if (!versions.containsKey(pkg)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+
+import jenkins.model.Jenkins;
+import ru.yandex.jenkins.plugins.debuilder.DebUtils.Runner;
+
+/**
+ * Uploads built modules to a {@link DebianPackageRepo}, the way files get there is chosen by the repository's method.
+ *
+ * @author pupssman
+ */
+public abstract class UploadEngine {
+	public static final String SCPB = "scpb";
+	public static final String SFTP = "sftp";
+	// build variable making the engine upload everything, even the files the manifest says the repository already got
+	public static final String FORCE_UPLOAD = "DEBIAN_FORCE_UPLOAD";
+
+	private static final String KEYS_DIR = "debian-package-builder-keys";
+
+	protected final DebianPackageRepo repo;
+	protected final UploadManifest manifest;
+	private boolean force;
+
+	protected UploadEngine(DebianPackageRepo repo) throws DebianizingException {
+		this.repo = repo;
+
+		try {
+			this.manifest = UploadManifest.forRepo(repo.getName());
+		} catch (IOException e) {
+			throw new DebianizingException("Failed to load upload manifest: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @param repo
+	 * @return engine uploading to the repo with its method
+	 * @throws DebianizingException if the method is not supported
+	 */
+	public static UploadEngine forRepo(DebianPackageRepo repo) throws DebianizingException {
+		if (SCPB.equals(repo.getMethod())) {
+			return new DuploadEngine(repo);
+		} else if (SFTP.equals(repo.getMethod())) {
+			return new SftpUploadEngine(repo);
+		}
+
+		throw new DebianizingException(MessageFormat.format("Upload method {0} of repo {1} is not supported", repo.getMethod(), repo.getName()));
+	}
+
+	public static boolean isSupported(String method) {
+		return SCPB.equals(method) || SFTP.equals(method);
+	}
+
+	public DebianPackageRepo getRepo() {
+		return repo;
+	}
+
+	/**
+	 * @param force if everything should be uploaded regardless of the upload manifest,
+	 *            as when an earlier upload was rejected by the repository
+	 */
+	public void setForce(boolean force) {
+		this.force = force;
+	}
+
+	/**
+	 * @return <b>true</b> if every file listed in the .changes was already uploaded and the upload is not forced
+	 */
+	protected boolean isUploaded(ChangesFile changes) {
+		return !force && manifest.isUploaded(changes);
+	}
+
+	/**
+	 * @return <b>true</b> if the file was already uploaded and the upload is not forced
+	 */
+	protected boolean isUploaded(ChangesFile.Entry entry) {
+		return !force && manifest.isUploaded(entry);
+	}
+
+	/**
+	 * @return debian packages providing the tools the engine needs on the node, may be empty
+	 */
+	public abstract String[] getRequiredPackages();
+
+	/**
+	 * Called once before any module is uploaded
+	 */
+	public abstract void prepare(AbstractBuild<?, ?> build, Runner runner) throws IOException, InterruptedException, DebianizingException;
+
+	/**
+	 * Uploads a single built module, may be called concurrently for different modules
+	 *
+	 * @param runner
+	 * @param module remote path to the module, the one containing <i>debian</i> directory
+	 * @return number of bytes uploaded
+	 * @throws IOException if the upload failed and may be retried
+	 */
+	public abstract long upload(Runner runner, String module) throws IOException, InterruptedException, DebianizingException;
+
+	/**
+	 * Called once after all the uploads, even failed ones
+	 */
+	public abstract void cleanup(Runner runner);
+
+	/**
+	 * @return .changes files <i>debuild</i> produced for current version of the module
+	 */
+	protected static FilePath[] findChanges(Runner runner, String module) throws IOException, InterruptedException {
+		FilePath source = new FilePath(runner.getChannel(), module);
+		ChangelogEntry entry = source.child("debian").child("changelog").act(new ChangelogParser());
+		String pattern = ChangesFile.getNamePrefix(entry.getSource(), entry.getVersion()) + "*.changes";
+
+		FilePath[] result = source.child("..").list(pattern);
+		if (result.length == 0) {
+			throw new IOException(MessageFormat.format("No {0} found for {1}", pattern, module));
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return contents of the private key of the repo, as stored on master
+	 */
+	protected String readKey() throws IOException, InterruptedException {
+		File keyPath = new File(new File(Jenkins.getInstance().getRootDir(), KEYS_DIR), repo.getKeypath());
+		return new FilePath(keyPath).readToString();
+	}
+}
@@ -0,0 +1,109 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import hudson.Util;
+import hudson.XmlFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Per-repository on-disk manifest of files uploaded there along with their SHA-256, stored in Jenkins root directory.
+ *
+ * Lets uploads skip the files the repository already got with the very same contents,
+ * as it happens when a build of the same version is re-triggered.
+ *
+ * @author pupssman
+ */
+public class UploadManifest {
+	private static final String DIR_NAME = "debian-package-builder-uploads";
+	private static final int MANIFEST_SIZE = 10000;
+
+	private static final ConcurrentMap<String, UploadManifest> manifests = new ConcurrentHashMap<String, UploadManifest>();
+
+	private transient String repo;
+
+	// file name -> SHA-256, oldest uploads first
+	private LinkedHashMap<String, String> uploaded = new LinkedHashMap<String, String>();
+
+	/**
+	 * @param repo name of the repository
+	 * @return manifest of the repository, loaded from disk on first use
+	 */
+	public static UploadManifest forRepo(String repo) throws IOException {
+		UploadManifest manifest = manifests.get(repo);
+
+		if (manifest == null) {
+			manifests.putIfAbsent(repo, load(repo));
+			manifest = manifests.get(repo);
+		}
+
+		return manifest;
+	}
+
+	private static UploadManifest load(String repo) throws IOException {
+		XmlFile file = getFile(repo);
+		UploadManifest manifest = file.exists() ? (UploadManifest) file.read() : new UploadManifest();
+
+		if (manifest.uploaded == null) {
+			manifest.uploaded = new LinkedHashMap<String, String>();
+		}
+
+		manifest.repo = repo;
+		return manifest;
+	}
+
+	private static XmlFile getFile(String repo) {
+		return new XmlFile(Jenkins.XSTREAM, new File(new File(Jenkins.getInstance().getRootDir(), DIR_NAME), Util.rawEncode(repo) + ".xml"));
+	}
+
+	/**
+	 * @param entry
+	 * @return <b>true</b> if the file was already uploaded with the same SHA-256
+	 */
+	public synchronized boolean isUploaded(ChangesFile.Entry entry) {
+		return entry.getSha256() != null && entry.getSha256().equalsIgnoreCase(uploaded.get(entry.getName()));
+	}
+
+	/**
+	 * @param changes
+	 * @return <b>true</b> if every file listed in the .changes was already uploaded with the same SHA-256
+	 */
+	public synchronized boolean isUploaded(ChangesFile changes) {
+		for (ChangesFile.Entry entry: changes.getEntries()) {
+			if (!isUploaded(entry)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Remembers that files listed in the .changes were uploaded and saves the manifest
+	 *
+	 * @param changes
+	 */
+	public synchronized void record(ChangesFile changes) throws IOException {
+		for (ChangesFile.Entry entry: changes.getEntries()) {
+			if (entry.getSha256() != null) {
+				uploaded.remove(entry.getName());
+				uploaded.put(entry.getName(), entry.getSha256());
+			}
+		}
+
+		Iterator<Map.Entry<String, String>> oldest = uploaded.entrySet().iterator();
+		while (uploaded.size() > MANIFEST_SIZE) {
+			oldest.next();
+			oldest.remove();
+		}
+
+		getFile(repo).write(this);
+	}
+}
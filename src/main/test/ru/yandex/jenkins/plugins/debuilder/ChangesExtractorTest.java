@@ -70,7 +70,7 @@ public class ChangesExtractorTest {
 		File debian = tmpFolder.newFolder("debian");
 		commit(tmpFolder.newFile("1"), "1", alice, "add 1");
 
-		List<Change> changes = ChangesExtractor.getChangesFromGit(git, gitDirPath, debian.getAbsolutePath(), jenkins);
+		List<Change> changes = ChangesExtractor.getChangesFromGit(git, debian.getAbsolutePath(), jenkins);
 		assertThat(changes, contains(new Change(alice.getName(), "add 1")));
 	}
 
@@ -81,7 +81,7 @@ public class ChangesExtractorTest {
 		commit(tmpFolder.newFile("1"), "1", alice, "add 1");
 		commit(new File(debian, "changelog"), "changelog", jenkins, "init");
 
-		List<Change> changes = ChangesExtractor.getChangesFromGit(git, gitDirPath, debian.getAbsolutePath(), jenkins);
+		List<Change> changes = ChangesExtractor.getChangesFromGit(git, debian.getAbsolutePath(), jenkins);
 		assertThat(changes, empty());
 	}
 
@@ -92,7 +92,7 @@ public class ChangesExtractorTest {
 		commit(tmpFolder.newFile("1"), "1", alice, "add 1");
 		commit(new File(debian, "changelog"), "changelog", alice, "init");
 
-		List<Change> changes = ChangesExtractor.getChangesFromGit(git, gitDirPath, debian.getAbsolutePath(), jenkins);
+		List<Change> changes = ChangesExtractor.getChangesFromGit(git, debian.getAbsolutePath(), jenkins);
 		assertThat(changes, empty());
 	}
 
@@ -105,7 +105,7 @@ public class ChangesExtractorTest {
 		commit(tmpFolder.newFile("2"), "2", alice, "add 2");
 		commit(tmpFolder.newFile("3"), "3", jenkins, "add 3");
 
-		List<Change> changes = ChangesExtractor.getChangesFromGit(git, gitDirPath, debian.getAbsolutePath(), jenkins);
+		List<Change> changes = ChangesExtractor.getChangesFromGit(git, debian.getAbsolutePath(), jenkins);
 		assertThat(changes, contains(new Change(alice.getName(), "add 2"), new Change(jenkins.getName(), "add 3")));
 	}
 
@@ -118,7 +118,7 @@ public class ChangesExtractorTest {
 		commit(tmpFolder.newFile("2"), "2", alice, "add 2");
 		commit(tmpFolder.newFile("3"), "3", alice, "add 3");
 
-		List<Change> changes = ChangesExtractor.getChangesFromGit(git, gitDirPath, debian.getAbsolutePath(), jenkins);
+		List<Change> changes = ChangesExtractor.getChangesFromGit(git, debian.getAbsolutePath(), jenkins);
 		assertThat(changes, contains(new Change(alice.getName(), "add 2"), new Change(alice.getName(), "add 3")));
 	}
 
@@ -132,7 +132,7 @@ public class ChangesExtractorTest {
 		commit(new File(debian, "changelog"), "modificate changelog", jenkins, "change");
 		commit(tmpFolder.newFile("3"), "3", alice, "add 3");
 
-		List<Change> changes = ChangesExtractor.getChangesFromGit(git, gitDirPath, debian.getAbsolutePath(), jenkins);
+		List<Change> changes = ChangesExtractor.getChangesFromGit(git, debian.getAbsolutePath(), jenkins);
 		assertThat(changes, contains(new Change(alice.getName(), "add 3")));
 	}
 
@@ -146,7 +146,7 @@ public class ChangesExtractorTest {
 		commit(new File(debian, "changelog"), "modificate changelog", alice, "change");
 		commit(tmpFolder.newFile("3"), "3", alice, "add 3");
 
-		List<Change> changes = ChangesExtractor.getChangesFromGit(git, gitDirPath, debian.getAbsolutePath(), jenkins);
+		List<Change> changes = ChangesExtractor.getChangesFromGit(git, debian.getAbsolutePath(), jenkins);
 		assertThat(changes, contains(new Change(alice.getName(), "add 3")));
 	}
 
@@ -160,7 +160,7 @@ public class ChangesExtractorTest {
 		commit(new File(debian, "changelog"), "modificate changelog", alice, "change");
 		commit(tmpFolder.newFile("3"), "3", alice, "add 3");
 
-		List<Change> changes = ChangesExtractor.getChangesFromGit(git, gitDirPath, debian.getAbsolutePath(), jenkins);
+		List<Change> changes = ChangesExtractor.getChangesFromGit(git, debian.getAbsolutePath(), jenkins);
 		assertThat(changes, contains(new Change(alice.getName(), "add 2"), new Change(alice.getName(), "change"), new Change(alice.getName(), "add 3")));
 	}
 
@@ -174,7 +174,7 @@ public class ChangesExtractorTest {
 		commit(new File(debian, "changelog"), "modificate changelog", jenkins, "change");
 		commit(tmpFolder.newFile("3"), "3", alice, "add 3");
 
-		List<Change> changes = ChangesExtractor.getChangesFromGit(git, gitDirPath, debian.getAbsolutePath(), jenkins);
+		List<Change> changes = ChangesExtractor.getChangesFromGit(git, debian.getAbsolutePath(), jenkins);
 		assertThat(changes, contains(new Change(alice.getName(), "add 3")));
 	}
 }
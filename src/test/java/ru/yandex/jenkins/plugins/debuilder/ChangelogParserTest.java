@@ -0,0 +1,50 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class ChangelogParserTest {
+	private static final String CHANGELOG =
+			"foo (1.0-1) unstable testing; urgency=low, binary-only=yes\n" +
+			"\n" +
+			"  [ Alice ]\n" +
+			"  * Multi-line entry which goes on\n" +
+			"    and on\n" +
+			"  * Second entry\n" +
+			"\n" +
+			"  [ Bob ]\n" +
+			"  * Third entry\n" +
+			"\n" +
+			" -- Jenkins <jenkins@ci.com>  Mon, 01 Jan 2024 10:00:00 +0000\n" +
+			"\n" +
+			"foo (0.9) unstable; urgency=high\n" +
+			"\n" +
+			"  * Older entry\n" +
+			"\n" +
+			" -- Jenkins <jenkins@ci.com>  Mon, 01 Jan 2023 10:00:00 +0000\n";
+
+	@Test
+	public void parsesOnlyFirstStanza() throws IOException {
+		ChangelogEntry entry = ChangelogParser.parse(new BufferedReader(new StringReader(CHANGELOG)));
+
+		assertThat(entry.getSource(), equalTo("foo"));
+		assertThat(entry.getVersion(), equalTo("1.0-1"));
+		assertThat(entry.getDistribution(), equalTo("unstable testing"));
+		assertThat(entry.getUrgency(), equalTo("low"));
+		assertThat(entry.getMaintainer(), equalTo("Jenkins <jenkins@ci.com>"));
+		assertThat(entry.getDate(), equalTo("Mon, 01 Jan 2024 10:00:00 +0000"));
+		assertThat(entry.getChanges(), contains("Multi-line entry which goes on and on", "Second entry", "Third entry"));
+	}
+
+	@Test(expected = IOException.class)
+	public void failsWithoutTrailer() throws IOException {
+		ChangelogParser.parse(new BufferedReader(new StringReader("foo (1.0) unstable; urgency=low\n\n  * entry\n")));
+	}
+}
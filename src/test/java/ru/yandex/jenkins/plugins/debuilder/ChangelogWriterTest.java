@@ -0,0 +1,75 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ru.yandex.jenkins.plugins.debuilder.ChangesExtractor.Change;
+
+public class ChangelogWriterTest {
+	// Mon, 01 Jan 2024 10:00:00 +0000
+	private static final Date DATE = new Date(1704103200000L);
+	private static TimeZone defaultTimeZone;
+
+	@BeforeClass
+	public static void setUtc() {
+		defaultTimeZone = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+	}
+
+	@AfterClass
+	public static void restoreTimeZone() {
+		TimeZone.setDefault(defaultTimeZone);
+	}
+
+	@Test
+	public void writesSingleAuthorStanzaLikeDch() {
+		ChangelogWriter writer = new ChangelogWriter("foo", "1.1", "unstable", "Jenkins", "jenkins@ci.com", "Build #5. Started by an SCM change.",
+				Collections.singletonList(new Change("Jenkins", "Second   entry\nspanning lines")));
+
+		assertThat(writer.getStanza(DATE), equalTo(
+				"foo (1.1) unstable; urgency=medium\n" +
+				"\n" +
+				"  * Build #5. Started by an SCM change.\n" +
+				"  * Second entry spanning lines\n" +
+				"\n" +
+				" -- Jenkins <jenkins@ci.com>  Mon, 01 Jan 2024 10:00:00 +0000\n"));
+	}
+
+	/**
+	 * Expected output is what <i>dch</i> (Text::Wrap with 80 columns) produces for the same entries
+	 */
+	@Test
+	public void groupsAndWrapsEntriesLikeDch() {
+		ChangelogWriter writer = new ChangelogWriter("foo", "1.1", "unstable testing", "Jenkins", "jenkins@ci.com", "Build #5.", Arrays.asList(
+				new Change("Alice", "Rework the upload engine so that retries back off exponentially and the repository is never hammered by a flapping agent"),
+				new Change("Alice", "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa bbbb"),
+				new Change("Bob", "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa bbb"),
+				new Change("Bob", "   ")));
+
+		assertThat(writer.getStanza(DATE), equalTo(
+				"foo (1.1) unstable testing; urgency=medium\n" +
+				"\n" +
+				"  [ Jenkins ]\n" +
+				"  * Build #5.\n" +
+				"\n" +
+				"  [ Alice ]\n" +
+				"  * Rework the upload engine so that retries back off exponentially and the\n" +
+				"    repository is never hammered by a flapping agent\n" +
+				"  * aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa\n" +
+				"    bbbb\n" +
+				"\n" +
+				"  [ Bob ]\n" +
+				"  * aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa bbb\n" +
+				"\n" +
+				" -- Jenkins <jenkins@ci.com>  Mon, 01 Jan 2024 10:00:00 +0000\n"));
+	}
+}
@@ -0,0 +1,59 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ChangesFileTest {
+	private static final String CHANGES =
+			"-----BEGIN PGP SIGNED MESSAGE-----\n" +
+			"Hash: SHA256\n" +
+			"\n" +
+			"Format: 1.8\n" +
+			"Source: foo\n" +
+			"Version: 1.0-1\n" +
+			"Checksums-Sha1:\n" +
+			" 1111111111111111111111111111111111111111 700 foo_1.0-1.dsc\n" +
+			"Checksums-Sha256:\n" +
+			" aaaa 700 foo_1.0-1.dsc\n" +
+			" bbbb 1200 foo_1.0-1_amd64.deb\n" +
+			"Files:\n" +
+			" 0123 700 misc optional foo_1.0-1.dsc\n" +
+			" 4567 1200 misc optional foo_1.0-1_amd64.deb\n" +
+			" 89ab 30 misc optional foo_1.0-1.tar.gz\n" +
+			"\n" +
+			"-----BEGIN PGP SIGNATURE-----\n" +
+			" not a file 1 misc optional bar.deb\n" +
+			"-----END PGP SIGNATURE-----\n";
+
+	@Test
+	public void readsFilesWithChecksums() throws IOException {
+		List<ChangesFile.Entry> entries = ChangesFile.parse("foo_1.0-1_amd64.changes", new BufferedReader(new StringReader(CHANGES))).getEntries();
+
+		assertThat(entries.size(), equalTo(3));
+
+		assertThat(entries.get(0).getName(), equalTo("foo_1.0-1.dsc"));
+		assertThat(entries.get(0).getSize(), equalTo(700L));
+		assertThat(entries.get(0).getSha256(), equalTo("aaaa"));
+		assertThat(entries.get(0).getMd5(), equalTo("0123"));
+
+		assertThat(entries.get(1).getName(), equalTo("foo_1.0-1_amd64.deb"));
+		assertThat(entries.get(1).getSha256(), equalTo("bbbb"));
+
+		assertThat(entries.get(2).getName(), equalTo("foo_1.0-1.tar.gz"));
+		assertThat(entries.get(2).getSha256(), nullValue());
+		assertThat(entries.get(2).getMd5(), equalTo("89ab"));
+	}
+
+	@Test(expected = IOException.class)
+	public void failsWithoutFiles() throws IOException {
+		ChangesFile.parse("empty.changes", new BufferedReader(new StringReader("Source: foo\n")));
+	}
+}
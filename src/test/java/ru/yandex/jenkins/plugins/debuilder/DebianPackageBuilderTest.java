@@ -0,0 +1,58 @@
+package ru.yandex.jenkins.plugins.debuilder;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import hudson.model.AbstractBuild;
+
+import org.junit.Test;
+
+import ru.yandex.jenkins.plugins.debuilder.DebUtils.Runner;
+
+public class DebianPackageBuilderTest {
+	@Test
+	public void buildsWithConfiguredJobs() throws Exception {
+		DebianPackageBuilder builder = new DebianPackageBuilder(".", "", false, false, true);
+		builder.setParallelJobs(3);
+		Runner runner = mock(Runner.class);
+
+		assertThat(builder.getParallelJobs(mock(AbstractBuild.class), runner), equalTo(3));
+		verify(runner, never()).runCommandForOutput(anyString());
+	}
+
+	@Test
+	public void dividesCoresByBusyExecutorsAndConcurrentModules() {
+		assertThat(DebianPackageBuilder.getParallelJobs(16, 2, 4), equalTo(2));
+		assertThat(DebianPackageBuilder.getParallelJobs(16, 1, 1), equalTo(16));
+		assertThat(DebianPackageBuilder.getParallelJobs(8, 3, 1), equalTo(2));
+		// idle node and a single builder
+		assertThat(DebianPackageBuilder.getParallelJobs(8, 0, 0), equalTo(8));
+		// never less than a single job
+		assertThat(DebianPackageBuilder.getParallelJobs(2, 4, 2), equalTo(1));
+	}
+
+	@Test
+	public void buildsWithNodeCoresDividedByConcurrentModules() throws Exception {
+		DebianPackageBuilder builder = new DebianPackageBuilder(".", "", false, false, true);
+		builder.setConcurrentModules(2);
+		Runner runner = mock(Runner.class);
+		doReturn("8\n").when(runner).runCommandForOutput("nproc");
+
+		// the build is not on any node, so it is the only busy executor
+		assertThat(builder.getParallelJobs(mock(AbstractBuild.class), runner), equalTo(4));
+	}
+
+	@Test
+	public void buildsWithSingleJobWhenCoresAreUnknown() throws Exception {
+		DebianPackageBuilder builder = new DebianPackageBuilder(".", "", false, false, true);
+		Runner runner = mock(Runner.class);
+		doReturn("bash: nproc: command not found\n").when(runner).runCommandForOutput("nproc");
+
+		assertThat(builder.getParallelJobs(mock(AbstractBuild.class), runner), equalTo(1));
+	}
+}
@@ -1,7 +1,9 @@
 package ru.yandex.jenkins.plugins.debuilder;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 
@@ -14,6 +16,7 @@ import hudson.model.Result;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
@@ -21,6 +24,8 @@ import org.mockito.Mockito;
 
 import static org.mockito.Mockito.*;
 import ru.yandex.jenkins.plugins.debuilder.ChangesExtractor.Change;
+import ru.yandex.jenkins.plugins.debuilder.DebUtils.CommandOutput;
+import ru.yandex.jenkins.plugins.debuilder.DebUtils.LineProcessor;
 import ru.yandex.jenkins.plugins.debuilder.DebUtils.Runner;
 import ru.yandex.jenkins.plugins.debuilder.DebianPackageBuilder.DescriptorImpl;
 
@@ -28,6 +33,11 @@ public class SmokeTest {
 	@Rule
 	public JenkinsRule j = new JenkinsRule();
 
+	@Before
+	public void forgetInstalledTools() {
+		ToolsCache.clear();
+	}
+
 	/**
 	 * This test smokey-checks that the {@link DebianPackageBuilder} calls proper shell commands
 	 *
@@ -43,7 +53,7 @@ public class SmokeTest {
 		fire(builder);
 
 		verifyInstallAndKeyImport(runner);
-		verify(runner).runCommandForOutput(contains("dpkg-parsechangelog"), contains("debian"));
+		verify(builder).parseChangelog(any(Runner.class), contains("debian"));
 		verify(runner).runCommand(contains("pbuilder-satisfydepends"), anyVararg());
 		verifyIrrelevantAndBuild(runner);
 		verifyNoMoreInteractions(runner);
@@ -62,13 +72,14 @@ public class SmokeTest {
 
 		mockTestDescriptor(builder);
 		Runner runner = mockBasicRunner(builder);
+		mockChangelogWriting(builder);
 
 		fire(builder);
 
 		verifyInstallAndKeyImport(runner);
-		verify(runner).runCommandForOutput(contains("dpkg-parsechangelog"), contains("debian"));
+		verify(builder).parseChangelog(any(Runner.class), contains("debian"));
 		verify(runner).runCommand(contains("pbuilder-satisfydepends"), anyVararg());
-		verify(runner).runCommand(contains("dch"), anyVararg());
+		verify(builder).writeChangelog(any(AbstractBuild.class), any(BuildListener.class), anyString(), any(Runner.class), any(Pair.class), anyString(), anyString());
 		verifyIrrelevantAndBuild(runner);
 		verifyNoMoreInteractions(runner);
 	}
@@ -87,6 +98,7 @@ public class SmokeTest {
 
 		mockTestDescriptor(builder);
 		Runner runner = mockBasicRunner(builder);
+		mockChangelogWriting(builder);
 
 		Pair<VersionHelper, List<Change>> changes = new ImmutablePair<VersionHelper, List<Change>>(new VersionHelper("1.0"), Arrays.asList(new Change[] {new Change("ololo", "pewpew")}));
 
@@ -95,15 +107,12 @@ public class SmokeTest {
 		fire(builder);
 
 		verifyInstallAndKeyImport(runner);
-		verify(runner).runCommandForOutput(contains("dpkg-parsechangelog"), contains("debian"));
+		verify(builder).parseChangelog(any(Runner.class), contains("debian"));
 		verify(runner).runCommand(contains("pbuilder-satisfydepends"), anyVararg());
-		verify(runner).runCommand(contains("dch --check-dirname-level 0 -b --distribution ''{5}'' --newVersion {3} -- ''{4}''"), anyVararg());
-		verify(runner).runCommand(contains("dch --check-dirname-level 0 --distribution ''{4}'' --append -- ''{3}''"),
-											any(),
-											any(),
-											any(),
-											eq("pewpew"),  // the version message
-											any()
+		verify(builder).writeChangelog(any(AbstractBuild.class), any(BuildListener.class), anyString(), any(Runner.class),
+											eq(changes),  // the changes with version message
+											anyString(),
+											anyString()
 											);
 		verifyIrrelevantAndBuild(runner);
 		verifyNoMoreInteractions(runner);
@@ -120,8 +129,11 @@ public class SmokeTest {
 	private void verifyIrrelevantAndBuild(Runner runner) throws InterruptedException, DebianizingException {
 		verify(runner, atLeast(0)).announce(anyString());
 		verify(runner, atLeast(0)).getListener();
+		verify(runner, atLeast(0)).getChannel();
 		verify(runner, atLeast(0)).announce(anyString(), anyVararg());
+		verify(runner).runCommandForOutput("nproc");
 		verify(runner).runCommand(contains("debuild"));
+		verify(runner).close();
 	}
 
 
@@ -145,12 +157,22 @@ public class SmokeTest {
 		doReturn(true).when(runner).runCommandForResult(any(String.class));
 		doReturn("").when(runner).runCommandForOutput(any(String.class));
 		doReturn("").when(runner).runCommandForOutput(any(String.class), anyVararg());
+		doReturn("4\n").when(runner).runCommandForOutput("nproc");
+		doReturn(new CommandOutput<HashMap<String, String>>(1, new HashMap<String, String>())).when(runner).runCommandForLines(any(String.class), any(LineProcessor.class));
 
 		doReturn(runner).when(builder).makeRunner(Mockito.any(AbstractBuild.class), Mockito.any(Launcher.class), Mockito.any(BuildListener.class));
+		doReturn(new ChangelogEntry("foo", "0.9", "unstable", "medium", "foo <foo@bar.com>", "Thu, 01 Jan 1970 00:00:00 +0000", new ArrayList<String>()))
+			.when(builder).parseChangelog(any(Runner.class), anyString());
 		return runner;
 	}
 
+	@SuppressWarnings("unchecked")
+	private void mockChangelogWriting(DebianPackageBuilder builder) throws IOException, InterruptedException, DebianizingException {
+		doNothing().when(builder).writeChangelog(any(AbstractBuild.class), any(BuildListener.class), anyString(), any(Runner.class), any(Pair.class), anyString(), anyString());
+	}
+
 	public void verifyInstallAndKeyImport(Runner runner) throws InterruptedException, DebianizingException {
+		verify(runner, times(2)).runCommandForLines(eq("dpkg -s aptitude pbuilder"), any(LineProcessor.class));
 		verify(runner).runCommand("sudo apt-get -y update");
 		verify(runner).runCommand("sudo apt-get -y install aptitude pbuilder");
 		verify(runner).runCommandForResult("gpg --list-key {0}", "foo@bar.com");